@@ -2,16 +2,39 @@ package one.wangwei.blockchain.block;
 
 import one.wangwei.blockchain.pow.Pow;
 import one.wangwei.blockchain.transaction.Transaction;
+import one.wangwei.blockchain.util.MerkleRoot;
 
 import java.time.Instant;
 import java.util.Arrays;
 import java.util.HexFormat;
 import java.util.Optional;
 
+import static java.util.Arrays.stream;
+
 public record Block(Id id, Id previousId, Transaction[] transactions, Instant timeStamp, long nonce) {
 
     public static Optional<Block> createGenesisBlock(Transaction coinbase) {
-        return Pow.createBlock(Id.Null, coinbase);
+        return createGenesisBlock(coinbase, Pow.TARGET_BITS);
+    }
+
+    public static Optional<Block> createGenesisBlock(Transaction coinbase, int targetBits) {
+        return Pow.createBlock(targetBits, Id.Null, coinbase);
+    }
+
+    public Header header() {
+        return new Header(id, previousId, Pow.merkleRoot(transactions), timeStamp, nonce);
+    }
+
+    /**
+     * The Merkle path from the transaction to {@link Header#merkleRoot()}, or empty if it is not in this block.
+     */
+    public Optional<MerkleRoot.Proof> proof(Transaction.Id txId) {
+        for (var i = 0; i < transactions.length; i++) {
+            if (transactions[i].id().equals(txId)) {
+                return Optional.of(MerkleRoot.proof(stream(transactions).map(Transaction::hash).toList(), i));
+            }
+        }
+        return Optional.empty();
     }
 
     @Override
@@ -46,4 +69,23 @@ public record Block(Id id, Id previousId, Transaction[] transactions, Instant ti
             return Arrays.hashCode(value);
         }
     }
+
+    /**
+     * Everything the proof of work covers, with the transactions reduced to their Merkle root.
+     */
+    public record Header(Id id, Id previousId, byte[] merkleRoot, Instant timeStamp, long nonce) {
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Header header = (Header) o;
+            return nonce == header.nonce && id.equals(header.id) && previousId.equals(header.previousId)
+                    && Arrays.equals(merkleRoot, header.merkleRoot) && timeStamp.equals(header.timeStamp);
+        }
+
+        @Override
+        public int hashCode() {
+            return id.hashCode();
+        }
+    }
 }
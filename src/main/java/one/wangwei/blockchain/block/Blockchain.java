@@ -1,148 +1,440 @@
 package one.wangwei.blockchain.block;
 
 import one.wangwei.blockchain.pow.Pow;
-import one.wangwei.blockchain.store.RocksDbBlockRepository;
+import one.wangwei.blockchain.store.BlockRepository;
+import one.wangwei.blockchain.store.Prunable;
+import one.wangwei.blockchain.store.Totals;
 import one.wangwei.blockchain.transaction.Input;
+import one.wangwei.blockchain.transaction.Output;
 import one.wangwei.blockchain.transaction.OutputReference;
+import one.wangwei.blockchain.transaction.SignatureCache;
 import one.wangwei.blockchain.transaction.Transaction;
 import one.wangwei.blockchain.util.BtcAddressUtils;
+import one.wangwei.blockchain.util.OutpointTable;
 import one.wangwei.blockchain.wallet.Address;
 import one.wangwei.blockchain.wallet.Wallet;
 
+import java.nio.ByteBuffer;
 import java.security.*;
 import java.security.spec.InvalidKeySpecException;
+import java.time.Duration;
+import java.time.Instant;
 import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.Function;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
 import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
-import static java.util.function.Function.identity;
+import static java.lang.System.Logger.Level.WARNING;
+import static java.util.Spliterator.NONNULL;
+import static java.util.Spliterator.ORDERED;
 import static java.util.function.Predicate.not;
-import static java.util.stream.Collectors.toMap;
 import static one.wangwei.blockchain.block.Block.createGenesisBlock;
 import static one.wangwei.blockchain.transaction.Transaction.Id;
 import static one.wangwei.blockchain.transaction.Transaction.createCoinbaseTX;
 
 public class Blockchain {
+    private static final System.Logger logger = System.getLogger(Blockchain.class.getName());
 
-    private final RocksDbBlockRepository storage;
+    private static final int PREFETCH = 16;
+    private static final int SIGNATURE_CACHE_SIZE = Integer.getInteger("blockchain.signatureCacheSize", 100_000);
+    // keep only this many recent blocks in full after each mined block, 0 keeps everything
+    private static final long PRUNE_KEEP = Long.getLong("blockchain.pruneKeep", 0);
 
-    public static Blockchain createBlockchain(RocksDbBlockRepository storage, Address address) {
+    private final BlockRepository storage;
+    private final int targetBits;
+
+    private final Lock writer = new ReentrantLock();
+    private final List<Runnable> listeners = new CopyOnWriteArrayList<>();
+    private final SignatureCache signatures = new SignatureCache(SIGNATURE_CACHE_SIZE);
+
+    public static Blockchain createBlockchain(BlockRepository storage, Address address) {
+        return createBlockchain(storage, address, Pow.TARGET_BITS);
+    }
+
+    /**
+     * Creates or opens a chain mined at {@code targetBits} instead of {@link Pow#TARGET_BITS}, which only
+     * validates against the same difficulty; for scratch chains such as the load generator's.
+     */
+    public static Blockchain createBlockchain(BlockRepository storage, Address address, int targetBits) {
         storage.getLastBlockId().or(() -> {
             var baseData = "G4ZD3A4Ya!tFz6vkqFC8D@eDPXK2sLGT8tPqbeTKbzmC6e.sYy@RsmMm-_MytkACCwxFj";
             var tx = createCoinbaseTX(address, baseData);
-            var block = createGenesisBlock(tx).orElseThrow();
+            var block = createGenesisBlock(tx, targetBits).orElseThrow();
+            // losing the race means somebody else already created the chain
             storage.append(block);
-            return Optional.of(block.id());
+            return storage.getLastBlockId();
         });
 
-        return new Blockchain(storage);
+        return new Blockchain(storage, targetBits);
     }
 
-    public Blockchain(RocksDbBlockRepository storage) {
+    public Blockchain(BlockRepository storage) {
+        this(storage, Pow.TARGET_BITS);
+    }
+
+    public Blockchain(BlockRepository storage, int targetBits) {
         this.storage = storage;
+        this.targetBits = targetBits;
     }
 
+    /**
+     * Scans the blocks stored in full from the tip down, then the outputs left by pruned blocks,
+     * leaving out those the full blocks spend.
+     */
     public Stream<OutputReference> getUnspent(Wallet fromWallet) {
-        return stream()
-                .flatMap(x -> Arrays.stream(x.transactions()))
-                .flatMap(new Function<>() {
-                    private final List<Input> spent = new LinkedList<>();
-                    private final byte[] fromPubKey = fromWallet.publicKey().getEncoded();
-                    private final byte[] fromPubKeyHash = BtcAddressUtils.ripeMD160Hash(fromPubKey);
-
-                    @Override
-                    public Stream<? extends OutputReference> apply(Transaction transaction) {
-                        var unspent = Stream.<OutputReference>builder();
-                        var outputs = transaction.outputs();
-                        for (var index = 0; index < outputs.length; index++) {
-                            var output = outputs[index];
-
-                            // continue to the next output if this one is not of the sender
-                            if (!Arrays.equals(output.pubKeyHash(), fromPubKeyHash)) continue;
-
-                            // continue to the next output if this one is spent
-                            if (remove(transaction.id(), index)) continue;
-
-                            // add valid to list of unspent
-                            unspent.add(new OutputReference(transaction.id(), index, output));
-                        }
-                        // accumulate transaction inputs of sender
-                        for (var input : transaction.inputs()) {
-                            if (Arrays.equals(input.getPubKey(), fromPubKey)) {
-                                spent.add(input);
-                            }
-                        }
+        var fromPubKeys = fromWallet.scheme().publicKeyForms(fromWallet.publicKey());
+        var fromPubKeyHash = BtcAddressUtils.ripeMD160Hash(fromWallet.publicKey().getEncoded());
+        var spent = new OutpointTable();
+        var view = storage.snapshot();
+        try {
+            var full = matching(view, List.of(fromPubKeyHash))
+                    .flatMap(x -> Arrays.stream(x.transactions()))
+                    .flatMap(new Function<Transaction, Stream<OutputReference>>() {
+                        @Override
+                        public Stream<OutputReference> apply(Transaction transaction) {
+                            var unspent = Stream.<OutputReference>builder();
+                            var outputs = transaction.outputs();
+                            for (var index = 0; index < outputs.length; index++) {
+                                var output = outputs[index];
 
-                        return unspent.build();
-                    }
+                                // continue to the next output if this one is not of the sender
+                                if (!Arrays.equals(output.pubKeyHash(), fromPubKeyHash)) continue;
+
+                                // continue to the next output if this one is spent
+                                if (spent.remove(transaction.id().value(), index)) continue;
 
-                    private boolean remove(Id txId, int index) {
-                        var iterator = spent.listIterator(spent.size());
-                        while (iterator.hasPrevious()) {
-                            var next = iterator.previous();
-                            if (next.getOutputIndex() == index && Objects.equals(next.getTxId(), txId)) {
-                                iterator.remove();
-                                return true;
+                                // add valid to list of unspent
+                                unspent.add(new OutputReference(transaction.id(), index, output));
+                            }
+                            // accumulate transaction inputs of sender
+                            if (transaction.isCoinbase()) return unspent.build();
+                            for (var input : transaction.inputs()) {
+                                if (fromPubKeys.stream().anyMatch(x -> Arrays.equals(input.getPubKey(), x))) {
+                                    spent.put(input.getTxId().value(), input.getOutputIndex(), 0);
+                                }
                             }
+
+                            return unspent.build();
                         }
-                        return false;
+                    });
+            // only pulled once the full blocks are exhausted, so every spend of a pruned output is known
+            var pruned = Stream.of(view)
+                    .flatMap(x -> x.unspent(fromPubKeyHash).stream())
+                    .filter(x -> !spent.remove(x.txId().value(), x.index()));
+            return Stream.concat(full, pruned).onClose(view::close);
+        } catch (RuntimeException e) {
+            view.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Unspent outputs of every wallet, from one pass over the chain however many wallets there are.
+     * Outputs and inputs are matched with hash lookups on pubKeyHash and public key, and blocks whose
+     * filter matches none of the wallets are never read. Filters are keyed per block, so checking one
+     * hashes and sorts all N pubKeyHashes again: O(N log N) per block, on top of one filter decode.
+     */
+    public Map<Address, List<OutputReference>> getUnspent(Collection<Wallet> wallets) {
+        var result = new LinkedHashMap<Address, List<OutputReference>>();
+        var byPubKeyHash = new HashMap<ByteBuffer, List<OutputReference>>();
+        var pubKeys = new HashSet<ByteBuffer>();
+        for (var wallet : wallets) {
+            var address = wallet.getAddress();
+            byPubKeyHash.put(ByteBuffer.wrap(address.hash()), result.computeIfAbsent(address, x -> new ArrayList<>()));
+            for (var form : wallet.scheme().publicKeyForms(wallet.publicKey())) pubKeys.add(ByteBuffer.wrap(form));
+        }
+        var spent = new OutpointTable();
+        try (var view = storage.snapshot(); var blocks = matching(view, byPubKeyHash.keySet().stream().map(ByteBuffer::array).toList())) {
+            blocks.flatMap(x -> Arrays.stream(x.transactions())).forEach(transaction -> {
+                var outputs = transaction.outputs();
+                for (var index = 0; index < outputs.length; index++) {
+                    var unspent = byPubKeyHash.get(ByteBuffer.wrap(outputs[index].pubKeyHash()));
+                    if (unspent == null || spent.remove(transaction.id().value(), index)) continue;
+                    unspent.add(new OutputReference(transaction.id(), index, outputs[index]));
+                }
+                if (transaction.isCoinbase()) return;
+                for (var input : transaction.inputs()) {
+                    if (pubKeys.contains(ByteBuffer.wrap(input.getPubKey()))) {
+                        spent.put(input.getTxId().value(), input.getOutputIndex(), 0);
                     }
-                });
+                }
+            });
+            byPubKeyHash.forEach((pubKeyHash, unspent) -> {
+                for (var x : view.unspent(pubKeyHash.array())) {
+                    if (!spent.remove(x.txId().value(), x.index())) unspent.add(x);
+                }
+            });
+        }
+        return result;
     }
 
+    /**
+     * Blocks from the tip back to the pruned height whose filter matches any of the items, so a wallet
+     * rescan only reads and decodes the blocks that pay or are signed by it.
+     */
+    private Stream<Block> matching(BlockRepository.View view, Collection<byte[]> items) {
+        var height = view.getHeight();
+        if (height.isEmpty()) return Stream.empty();
+        var range = view.range(height.get(), 0, PREFETCH, id -> view.mayContainAny(id, items));
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(range, ORDERED | NONNULL), false)
+                .onClose(range::close);
+    }
+
+    /**
+     * Mining is serialized through a single writer; the append is a compare-and-set on the tip,
+     * so a tip moved by another process makes the block be verified and mined again on top of it.
+     */
     public Optional<Block> mineBlock(Transaction[] transactions) throws InvalidKeySpecException, SignatureException, NoSuchAlgorithmException, InvalidKeyException, NoSuchProviderException {
-        for (var tx : transactions) {
-            if (!verifyTransactions(tx)) {
-                throw new IllegalArgumentException("transactions are not valid");
+        writer.lock();
+        try {
+            var inputs = new OutpointTable();
+            for (var tx : transactions) {
+                if (tx.isCoinbase()) continue;
+                for (var input : tx.inputs()) {
+                    if (!inputs.put(input.getTxId().value(), input.getOutputIndex(), 0))
+                        throw new IllegalArgumentException("output %s:%s is spent twice".formatted(input.getTxId(), input.getOutputIndex()));
+                }
             }
+            while (true) {
+                for (var tx : transactions) {
+                    if (!verifyTransactions(tx)) {
+                        throw new IllegalArgumentException("transactions are not valid");
+                    }
+                }
+                var tip = storage.getLastBlockId();
+                if (tip.isEmpty()) return Optional.empty();
+                var block = Pow.createBlock(targetBits, tip.get(), transactions);
+                if (block.isEmpty()) return block;
+                if (storage.append(block.get())) {
+                    listeners.forEach(Runnable::run);
+                    prune();
+                    return block;
+                }
+            }
+        } finally {
+            writer.unlock();
         }
-        return storage.getLastBlockId().flatMap(x -> {
-            var block = Pow.createBlock(x, transactions);
-            block.ifPresent(this::add);
-            return block;
-        });
     }
 
-    private void add(Block block) {
-        storage.append(block);
+    /**
+     * Best effort: the block is already appended and announced, a failed prune is retried after the next one.
+     */
+    private void prune() {
+        if (PRUNE_KEEP == 0 || !(storage instanceof Prunable prunable)) return;
+        try {
+            prunable.prune(PRUNE_KEEP);
+        } catch (RuntimeException e) {
+            logger.log(WARNING, "Fail to prune blocks !", e);
+        }
     }
 
+    /**
+     * Walks from the tip back to genesis, or to the first pruned block, over a snapshot taken when
+     * this method is called. The snapshot is released when the stream is closed.
+     */
     public Stream<Block> stream() {
+        var view = storage.snapshot();
         return Stream
                 .iterate(
-                        storage.getLastBlockId().flatMap(storage::findById),
+                        view.getLastBlockId().flatMap(view::findById),
                         not(Optional::isEmpty),
-                        x -> x.map(Block::previousId).flatMap(storage::findById)
+                        x -> x.map(Block::previousId).flatMap(view::findById)
                 )
-                .flatMap(Optional::stream);
+                .flatMap(Optional::stream)
+                .onClose(view::close);
+    }
+
+    /**
+     * Publishes every block appended after {@code after}, oldest first, and then each newly mined one.
+     * Pass {@link Block.Id#Null} to start from genesis, or the last block a consumer processed to resume.
+     * Subscribers are signalled on the given executor, the common pool by default; cancel every
+     * subscription before closing the underlying repository.
+     */
+    public Flow.Publisher<Block> blocks(Block.Id after) {
+        return blocks(after, ForkJoinPool.commonPool());
+    }
+
+    public Flow.Publisher<Block> blocks(Block.Id after, Executor executor) {
+        return new ChainPublisher<>(this, after, Stream::of, executor);
+    }
+
+    /**
+     * Publishes the transactions confirmed in every block appended after {@code after}, in chain order.
+     */
+    public Flow.Publisher<Transaction> transactions(Block.Id after) {
+        return transactions(after, ForkJoinPool.commonPool());
+    }
+
+    public Flow.Publisher<Transaction> transactions(Block.Id after, Executor executor) {
+        return new ChainPublisher<>(this, after, x -> Arrays.stream(x.transactions()), executor);
+    }
+
+    Optional<Block> findById(Block.Id id) {
+        return storage.findById(id);
+    }
+
+    Optional<Block.Id> findIdByHeight(long height) {
+        return storage.findIdByHeight(height);
+    }
+
+    void addListener(Runnable listener) {
+        listeners.add(listener);
+    }
+
+    void removeListener(Runnable listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * The difficulty blocks of this chain are mined and validated at.
+     */
+    public int targetBits() {
+        return targetBits;
+    }
+
+    public Optional<Long> height() {
+        return storage.getHeight();
+    }
+
+    /**
+     * The lowest height still stored in full; blocks below it only have their headers.
+     */
+    public long prunedHeight() {
+        return storage.getPrunedHeight();
+    }
+
+    public Optional<Long> heightOf(Block.Id id) {
+        return storage.findHeightById(id);
+    }
+
+    /**
+     * Answers from the running totals kept per height, three point reads however long the range.
+     * Empty when the range is not within {@code 0..height()}.
+     */
+    public Optional<ChainStats> stats(long from, long to) {
+        if (from < 0 || from > to) return Optional.empty();
+        var last = storage.getTotals(to);
+        var first = storage.getTotals(from);
+        var before = from == 0 ? Optional.of(Totals.Zero) : storage.getTotals(from - 1);
+        if (last.isEmpty() || first.isEmpty() || before.isEmpty()) return Optional.empty();
+        var sums = last.get().minus(before.get());
+        var blocks = to - from + 1;
+        var averageBlockTime = blocks == 1 ? Duration.ZERO : Duration.ofMillis((last.get().timeMillis() - first.get().timeMillis()) / (blocks - 1));
+        return Optional.of(new ChainStats(from, to, blocks, sums.transactions(), sums.inputs(), sums.outputs(), sums.issued(), sums.bytes(), averageBlockTime));
+    }
+
+    public Stream<Block> range(long from, long to) {
+        return range(from, to, PREFETCH);
+    }
+
+    /**
+     * Streams the blocks at heights {@code from} to {@code to}, both inclusive, in that order, so
+     * {@code range(1000, 2000)} goes forward and {@code range(2000, 1000)} goes backward. Up to
+     * {@code prefetch} blocks are read ahead while the current one is processed. Close the stream when done.
+     */
+    public Stream<Block> range(long from, long to, int prefetch) {
+        var view = storage.snapshot();
+        try {
+            var range = view.range(from, to, prefetch);
+            return StreamSupport.stream(Spliterators.spliteratorUnknownSize(range, ORDERED | NONNULL), false)
+                    .onClose(range::close)
+                    .onClose(view::close);
+        } catch (RuntimeException e) {
+            view.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Streams headers the same way {@link #range(long, long)} streams blocks, for light clients to follow.
+     */
+    public Stream<Block.Header> headers(long from, long to) {
+        var cut = storage.getPrunedHeight();
+        var low = Math.min(from, to);
+        var pruned = LongStream.rangeClosed(low, Math.min(Math.max(from, to), cut - 1));
+        if (from <= to) return Stream.concat(prunedHeaders(pruned), range(from, to).map(Block::header));
+        return Stream.concat(range(from, to).map(Block::header), prunedHeaders(pruned.map(x -> Math.min(from, cut - 1) + low - x)));
+    }
+
+    private Stream<Block.Header> prunedHeaders(LongStream heights) {
+        return heights
+                .mapToObj(storage::findIdByHeight)
+                .flatMap(Optional::stream)
+                .map(id -> storage.findPrunedHeader(id).orElseThrow());
+    }
+
+    /**
+     * Finds the block holding the transaction and proves it is there, for a light client to check.
+     */
+    public Optional<TransactionProof> prove(Id txId) {
+        try (var blocks = stream()) {
+            return blocks
+                    .flatMap(block -> block.proof(txId).map(proof -> new TransactionProof(
+                            block.id(),
+                            block.transactions()[proof.index()],
+                            proof
+                    )).stream())
+                    .findFirst();
+        }
     }
 
     private Optional<Transaction> findTransaction(Id txId) {
-        return stream()
-                .map(Block::transactions)
-                .flatMap(Arrays::stream)
-                .filter(x -> x.id().equals(txId))
-                .findFirst();
+        try (var blocks = stream()) {
+            return blocks
+                    .map(Block::transactions)
+                    .flatMap(Arrays::stream)
+                    .filter(x -> x.id().equals(txId))
+                    .findFirst();
+        }
     }
 
     public void signTransaction(Transaction tx, PrivateKey privateKey) throws NoSuchAlgorithmException, SignatureException, InvalidKeyException, NoSuchProviderException {
-        var prevTx = Arrays.stream(tx.inputs())
-                .map(Input::getTxId)
-                .distinct()
-                .map(this::findTransaction)
-                .flatMap(Optional::stream)
-                .collect(toMap(Transaction::id, identity()));
-        tx.sign(privateKey, prevTx);
+        tx.sign(privateKey, previousTransactions(tx, IntStream.range(0, tx.inputs().length)));
+    }
+
+    /**
+     * The transactions the selected inputs spend. Those in pruned blocks are rebuilt from the outputs kept
+     * for them, holding only the spent outputs, which is all signing and verifying look at.
+     */
+    private Map<Id, Transaction> previousTransactions(Transaction tx, IntStream selected) {
+        var result = new HashMap<Id, Transaction>();
+        var pruned = new HashMap<Id, Output[]>();
+        var missing = new HashSet<Id>();
+        selected.forEach(i -> {
+            var input = tx.inputs()[i];
+            var txId = input.getTxId();
+            if (result.containsKey(txId)) return;
+            var output = input.getScheme().pubKeyHash(input.getPubKey())
+                    .flatMap(x -> storage.findPrunedOutput(x, txId, input.getOutputIndex()));
+            if (output.isPresent()) {
+                var outputs = pruned.merge(txId, new Output[input.getOutputIndex() + 1],
+                        (a, b) -> a.length >= b.length ? a : Arrays.copyOf(a, b.length));
+                outputs[input.getOutputIndex()] = output.get();
+            } else {
+                findTransaction(txId).ifPresentOrElse(x -> result.put(txId, x), () -> missing.add(txId));
+            }
+        });
+        // an input spending neither a pruned output nor a stored transaction fails like a missing transaction
+        pruned.keySet().removeAll(missing);
+        pruned.forEach((txId, outputs) -> result.putIfAbsent(txId, new Transaction(txId, new Input[0], outputs, Instant.EPOCH)));
+        return result;
     }
 
     public boolean verifyTransactions(Transaction tx) throws InvalidKeySpecException, SignatureException, NoSuchAlgorithmException, InvalidKeyException, NoSuchProviderException {
         if (tx.isCoinbase()) return true;
-        var prevTx = Arrays.stream(tx.inputs())
-                .map(Input::getTxId)
-                .distinct()
-                .map(this::findTransaction)
-                .flatMap(Optional::stream)
-                .collect(toMap(Transaction::id, identity()));
-        return tx.verify(prevTx);
+        // only inputs that never passed with this exact content need the previous transactions and a signature check
+        var pending = signatures.unverified(tx);
+        if (pending.isEmpty()) return true;
+        if (!tx.verify(previousTransactions(tx, pending.stream()), pending::get)) return false;
+        signatures.verified(tx, pending);
+        return true;
     }
 }
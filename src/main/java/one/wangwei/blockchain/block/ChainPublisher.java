@@ -0,0 +1,119 @@
+package one.wangwei.blockchain.block;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+/**
+ * Emits the items of every block appended after a given block, oldest first, then keeps following the tip.
+ * Each subscription remembers the height of the next block to deliver and reads that one block, through
+ * the height index, only once the subscriber has asked for more than the items already read, so a block
+ * is delivered exactly once and no more is read than demand allows. A subscription that would need
+ * pruned blocks fails with {@link Flow.Subscriber#onError} rather than skipping them.
+ */
+class ChainPublisher<T> implements Flow.Publisher<T> {
+    private final Blockchain chain;
+    private final Block.Id after;
+    private final Function<Block, Stream<T>> items;
+    private final Executor executor;
+
+    ChainPublisher(Blockchain chain, Block.Id after, Function<Block, Stream<T>> items, Executor executor) {
+        this.chain = chain;
+        this.after = after;
+        this.items = items;
+        this.executor = executor;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super T> subscriber) {
+        var subscription = new ChainSubscription(subscriber);
+        // listen before the first request so that no append can slip between the backfill and the live tail
+        chain.addListener(subscription.listener);
+        subscriber.onSubscribe(subscription);
+    }
+
+    private class ChainSubscription implements Flow.Subscription {
+        private final Flow.Subscriber<? super T> subscriber;
+        private final Runnable listener = this::signal;
+        private final AtomicLong demand = new AtomicLong();
+        private final AtomicInteger wip = new AtomicInteger();
+        private volatile boolean cancelled;
+
+        // only touched by the draining thread
+        private final Deque<T> buffer = new ArrayDeque<>();
+        private long next = -1;
+
+        private ChainSubscription(Flow.Subscriber<? super T> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                cancel();
+                subscriber.onError(new IllegalArgumentException("non-positive subscription request: %s".formatted(n)));
+                return;
+            }
+            demand.getAndUpdate(x -> x + n < 0 ? Long.MAX_VALUE : x + n);
+            signal();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            chain.removeListener(listener);
+        }
+
+        private void signal() {
+            if (wip.getAndIncrement() == 0) executor.execute(this::drain);
+        }
+
+        private void drain() {
+            var missed = 1;
+            do {
+                try {
+                    emit();
+                } catch (RuntimeException e) {
+                    cancel();
+                    subscriber.onError(e);
+                    return;
+                }
+                missed = wip.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+        private void emit() {
+            if (next < 0) next = start();
+            while (!cancelled && demand.get() > 0) {
+                if (buffer.isEmpty()) {
+                    var id = chain.findIdByHeight(next);
+                    if (id.isEmpty()) return;
+                    // pruned since the subscription started, the subscriber would otherwise miss it silently
+                    var block = chain.findById(id.get()).orElseThrow(() -> new IllegalStateException("block %s was pruned before it was delivered".formatted(id.get())));
+                    items.apply(block).forEach(buffer::add);
+                    next++;
+                    continue;
+                }
+                demand.decrementAndGet();
+                subscriber.onNext(buffer.poll());
+            }
+        }
+
+        /**
+         * The height after {@code after}, which must not be below the pruned height.
+         */
+        private long start() {
+            var start = after.equals(Block.Id.Null) ? 0 : chain.heightOf(after)
+                    .orElseThrow(() -> new NoSuchElementException("block %s is not part of the chain".formatted(after))) + 1;
+            var pruned = chain.prunedHeight();
+            if (start < pruned) throw new IllegalStateException("blocks below height %s are pruned, %s cannot be followed".formatted(pruned, after));
+            return start;
+        }
+    }
+}
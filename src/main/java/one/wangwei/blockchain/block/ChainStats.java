@@ -0,0 +1,17 @@
+package one.wangwei.blockchain.block;
+
+import java.time.Duration;
+
+/**
+ * Aggregates over the blocks at heights {@code from} to {@code to}, both inclusive.
+ *
+ * @param issued           value created by coinbase transactions in the range
+ * @param averageBlockTime mean time between consecutive blocks, zero for a single block
+ */
+public record ChainStats(long from, long to, long blocks, long transactions, long inputs, long outputs, long issued, long bytes, Duration averageBlockTime) {
+    @Override
+    public String toString() {
+        return "{\"from\": %s, \"to\": %s, \"blocks\": %s, \"transactions\": %s, \"inputs\": %s, \"outputs\": %s, \"issued\": %s, \"bytes\": %s, \"averageBlockMillis\": %s}"
+                .formatted(from, to, blocks, transactions, inputs, outputs, issued, bytes, averageBlockTime.toMillis());
+    }
+}
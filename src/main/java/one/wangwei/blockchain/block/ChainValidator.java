@@ -0,0 +1,155 @@
+package one.wangwei.blockchain.block;
+
+import one.wangwei.blockchain.pow.Pow;
+import one.wangwei.blockchain.transaction.Output;
+import one.wangwei.blockchain.transaction.Transaction;
+import one.wangwei.blockchain.util.OutpointTable;
+
+import java.security.GeneralSecurityException;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Re-validates a chain from genesis: proof of work, Merkle roots, linkage, that every transaction id is
+ * derived from its transaction, that every block has one coinbase paying at most the subsidy, and that
+ * every input spends an existing, unspent output owned by its key. Signatures of the assume-valid block and its ancestors
+ * are not checked, since whoever configured the checkpoint vouches for them; everything else still is.
+ */
+public class ChainValidator {
+    private final Block.Id assumeValid;
+
+    /**
+     * @param assumeValid the checkpoint, or {@link Block.Id#Null} to verify every signature
+     */
+    public ChainValidator(Block.Id assumeValid) {
+        this.assumeValid = assumeValid;
+    }
+
+    /**
+     * Pruned chains cannot be re-validated, the spent outputs and signatures below the cut are gone.
+     * A checkpoint that is not part of the chain is rejected rather than ignored.
+     */
+    public Report validate(Blockchain chain) {
+        if (chain.prunedHeight() > 0) throw new IllegalStateException("chain is pruned below height %s".formatted(chain.prunedHeight()));
+        // with linkage checked, everything up to the checkpoint's height is one of its ancestors
+        var skipThrough = assumeValid.equals(Block.Id.Null) ? -1 : chain.heightOf(assumeValid)
+                .orElseThrow(() -> new IllegalArgumentException("assume-valid block %s is not part of the chain".formatted(assumeValid)));
+        var top = chain.height();
+        if (top.isEmpty()) return new Report(0, 0, 0, 0, Duration.ZERO, Duration.ZERO);
+        try (var blocks = chain.range(0, top.get())) {
+            return validate(blocks.iterator(), skipThrough, chain.targetBits());
+        }
+    }
+
+    Report validate(Iterator<Block> blocks, long skipThrough, int targetBits) {
+        var started = System.nanoTime();
+        var unspent = new HashMap<Transaction.Id, Transaction>();
+        var remaining = new HashMap<Transaction.Id, Integer>();
+        var spent = new OutpointTable();
+        var previous = Block.Id.Null;
+        long height = 0, transactions = 0, verified = 0, skipped = 0, signatureNanos = 0;
+        for (; blocks.hasNext(); height++) {
+            var block = blocks.next();
+            if (!block.previousId().equals(previous)) throw invalid(height, block, "does not follow %s".formatted(previous));
+            if (!Pow.validate(block.header(), targetBits)) throw invalid(height, block, "fails proof of work or Merkle root");
+            var assumed = height <= skipThrough;
+            checkCoinbase(height, block);
+            for (var tx : block.transactions()) {
+                transactions++;
+                // the Merkle root commits to the contents, not to the id later inputs refer to
+                if (!tx.hasConsistentId()) throw invalid(height, block, "has a transaction under id %s not derived from it".formatted(tx.id()));
+                if (!tx.isCoinbase()) {
+                    var prevTxMap = checkInputs(height, block, tx, unspent, spent);
+                    if (assumed) {
+                        skipped += tx.inputs().length;
+                    } else {
+                        var start = System.nanoTime();
+                        if (!verify(tx, prevTxMap)) throw invalid(height, block, "has a bad signature in %s".formatted(tx.id()));
+                        signatureNanos += System.nanoTime() - start;
+                        verified += tx.inputs().length;
+                    }
+                    for (var input : tx.inputs()) {
+                        if (!spent.put(input.getTxId().value(), input.getOutputIndex(), 0)) {
+                            throw invalid(height, block, "spends %s:%s twice".formatted(input.getTxId(), input.getOutputIndex()));
+                        }
+                        if (remaining.merge(input.getTxId(), -1, Integer::sum) == 0) {
+                            // fully spent transactions can no longer be referenced
+                            remaining.remove(input.getTxId());
+                            unspent.remove(input.getTxId());
+                        }
+                    }
+                }
+                unspent.put(tx.id(), tx);
+                remaining.put(tx.id(), tx.outputs().length);
+            }
+            previous = block.id();
+        }
+        return new Report(height, transactions, verified, skipped, Duration.ofNanos(System.nanoTime() - started), Duration.ofNanos(signatureNanos));
+    }
+
+    private static void checkCoinbase(long height, Block block) {
+        var coinbases = Arrays.stream(block.transactions()).filter(Transaction::isCoinbase).toList();
+        if (coinbases.size() != 1) throw invalid(height, block, "has %s coinbase transactions".formatted(coinbases.size()));
+        var coinbase = coinbases.get(0);
+        var issued = Arrays.stream(coinbase.outputs()).mapToLong(Output::value).sum();
+        if (issued > Transaction.SUBSIDY) throw invalid(height, block, "issues %s in %s, more than the subsidy".formatted(issued, coinbase.id()));
+    }
+
+    private static Map<Transaction.Id, Transaction> checkInputs(long height, Block block, Transaction tx, Map<Transaction.Id, Transaction> unspent, OutpointTable spent) {
+        var prevTxMap = new HashMap<Transaction.Id, Transaction>();
+        var in = 0L;
+        for (var input : tx.inputs()) {
+            var prevTx = unspent.get(input.getTxId());
+            var index = input.getOutputIndex();
+            if (prevTx == null || index < 0 || index >= prevTx.outputs().length || spent.contains(input.getTxId().value(), index)) {
+                throw invalid(height, block, "spends missing or spent output %s:%s".formatted(input.getTxId(), index));
+            }
+            var output = prevTx.outputs()[index];
+            var pubKeyHash = input.getScheme().pubKeyHash(input.getPubKey());
+            if (pubKeyHash.isEmpty()) {
+                throw invalid(height, block, "spends %s:%s with an undecodable key".formatted(input.getTxId(), index));
+            }
+            if (!Arrays.equals(pubKeyHash.get(), output.pubKeyHash())) {
+                throw invalid(height, block, "spends %s:%s with another key".formatted(input.getTxId(), index));
+            }
+            in += output.value();
+            prevTxMap.put(prevTx.id(), prevTx);
+        }
+        var out = Arrays.stream(tx.outputs()).mapToLong(Output::value).sum();
+        if (out > in) throw invalid(height, block, "creates value in %s".formatted(tx.id()));
+        return prevTxMap;
+    }
+
+    private static boolean verify(Transaction tx, Map<Transaction.Id, Transaction> prevTxMap) {
+        try {
+            return tx.verify(prevTxMap);
+        } catch (GeneralSecurityException e) {
+            throw new RuntimeException("Fail to verify transaction ! tx=%s".formatted(tx.id()), e);
+        }
+    }
+
+    private static IllegalStateException invalid(long height, Block block, String reason) {
+        return new IllegalStateException("block %s at height %s %s".formatted(block.id(), height, reason));
+    }
+
+    /**
+     * @param signatureTime time spent verifying the {@code signaturesVerified} signatures
+     */
+    public record Report(long blocks, long transactions, long signaturesVerified, long signaturesSkipped, Duration elapsed, Duration signatureTime) {
+        /**
+         * The skipped signatures priced at the mean cost of the verified ones; zero when none were verified.
+         */
+        public Duration estimatedSaving() {
+            return signaturesVerified == 0 ? Duration.ZERO : signatureTime.multipliedBy(signaturesSkipped).dividedBy(signaturesVerified);
+        }
+
+        @Override
+        public String toString() {
+            return "{\"blocks\": %s, \"transactions\": %s, \"signaturesVerified\": %s, \"signaturesSkipped\": %s, \"elapsedMillis\": %s, \"signatureMillis\": %s, \"estimatedSavingMillis\": %s}"
+                    .formatted(blocks, transactions, signaturesVerified, signaturesSkipped, elapsed.toMillis(), signatureTime.toMillis(), estimatedSaving().toMillis());
+        }
+    }
+}
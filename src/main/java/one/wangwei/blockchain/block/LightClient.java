@@ -0,0 +1,65 @@
+package one.wangwei.blockchain.block;
+
+import one.wangwei.blockchain.pow.Pow;
+import one.wangwei.blockchain.transaction.Transaction;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Follows the chain by headers only and verifies payments against them with Merkle proofs,
+ * so it holds one header per block and checks O(log n) hashes per transaction.
+ */
+public class LightClient {
+    private final List<Block.Header> headers = new ArrayList<>();
+    private final Map<Block.Id, Integer> heights = new HashMap<>();
+
+    /**
+     * Appends the header if it extends the current tip and carries valid proof of work.
+     */
+    public boolean accept(Block.Header header) {
+        var tip = headers.isEmpty() ? Block.Id.Null : headers.get(headers.size() - 1).id();
+        if (!header.previousId().equals(tip) || !Pow.validate(header)) return false;
+        heights.put(header.id(), headers.size());
+        headers.add(header);
+        return true;
+    }
+
+    /**
+     * Fetches the headers appended to the chain since the last sync.
+     */
+    public void sync(Blockchain chain) {
+        var height = chain.height();
+        if (height.isEmpty() || height.get() < headers.size()) return;
+        try (var blocks = chain.headers(headers.size(), height.get())) {
+            blocks.forEach(x -> {
+                if (!accept(x)) throw new IllegalStateException("header %s does not extend the chain".formatted(x.id()));
+            });
+        }
+    }
+
+    public Optional<Long> height() {
+        return headers.isEmpty() ? Optional.empty() : Optional.of(headers.size() - 1L);
+    }
+
+    /**
+     * Number of headers on top of, and including, the block holding the transaction {@code txId},
+     * or 0 if the proof is for another transaction, or does not hold against a known header.
+     */
+    public long confirmations(Transaction.Id txId, TransactionProof proof) {
+        // the Merkle path proves the transaction hash only, the id it claims must be the one asked about and follow from it
+        if (!txId.equals(proof.transaction().id()) || !proof.transaction().hasConsistentId()) return 0;
+        var height = heights.get(proof.blockId());
+        if (height == null) return 0;
+        var root = proof.proof().root(proof.transaction().hash());
+        return Arrays.equals(root, headers.get(height).merkleRoot()) ? headers.size() - height : 0;
+    }
+
+    public boolean verify(Transaction.Id txId, TransactionProof proof) {
+        return confirmations(txId, proof) > 0;
+    }
+}
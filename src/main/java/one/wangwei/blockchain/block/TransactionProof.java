@@ -0,0 +1,11 @@
+package one.wangwei.blockchain.block;
+
+import one.wangwei.blockchain.transaction.Transaction;
+import one.wangwei.blockchain.util.MerkleRoot;
+
+/**
+ * What a full node hands a light client for one payment: the transaction, the block it is in
+ * and the O(log n) Merkle path to that block's header.
+ */
+public record TransactionProof(Block.Id blockId, Transaction transaction, MerkleRoot.Proof proof) {
+}
@@ -0,0 +1,20 @@
+package one.wangwei.blockchain.cli;
+
+import one.wangwei.blockchain.block.Block;
+import picocli.CommandLine.ITypeConverter;
+import picocli.CommandLine.TypeConversionException;
+
+import java.util.HexFormat;
+
+public class BlockIdTypeConverter implements ITypeConverter<Block.Id> {
+    @Override
+    public Block.Id convert(String value) {
+        try {
+            var id = HexFormat.of().parseHex(value);
+            if (id.length != 32) throw new TypeConversionException("%s is not a 32 byte block id".formatted(value));
+            return new Block.Id(id);
+        } catch (IllegalArgumentException e) {
+            throw new TypeConversionException("%s is not a hex block id".formatted(value));
+        }
+    }
+}
@@ -1,11 +1,25 @@
 package one.wangwei.blockchain.cli;
 
+import one.wangwei.blockchain.block.Block;
 import one.wangwei.blockchain.block.Blockchain;
+import one.wangwei.blockchain.block.ChainValidator;
+import one.wangwei.blockchain.load.LoadGenerator;
+import one.wangwei.blockchain.load.NonceSearchBenchmark;
+import one.wangwei.blockchain.load.OutpointBenchmark;
+import one.wangwei.blockchain.load.SignatureBenchmark;
+import one.wangwei.blockchain.load.StorageBenchmark;
 import one.wangwei.blockchain.pow.Pow;
+import one.wangwei.blockchain.store.BlockRepository;
+import one.wangwei.blockchain.store.Compression;
+import one.wangwei.blockchain.store.Engine;
+import one.wangwei.blockchain.store.Prunable;
+import one.wangwei.blockchain.store.Reindexable;
 import one.wangwei.blockchain.store.RocksDbBlockRepository;
+import one.wangwei.blockchain.transaction.CoinSelection;
 import one.wangwei.blockchain.transaction.Transaction;
 import one.wangwei.blockchain.util.ObjectMapper;
 import one.wangwei.blockchain.wallet.Address;
+import one.wangwei.blockchain.wallet.SignatureScheme;
 import one.wangwei.blockchain.wallet.WalletRepository;
 import org.bouncycastle.jce.provider.BouncyCastleProvider;
 import org.rocksdb.RocksDBException;
@@ -15,9 +29,16 @@ import javax.crypto.IllegalBlockSizeException;
 import javax.crypto.NoSuchPaddingException;
 import javax.crypto.spec.SecretKeySpec;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.security.*;
 import java.security.spec.InvalidKeySpecException;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.logging.Level;
 import java.util.logging.LogManager;
+import java.util.logging.Logger;
 
 import static java.lang.System.Logger.Level.INFO;
 import static java.lang.System.getLogger;
@@ -34,11 +55,11 @@ import static picocli.CommandLine.*;
 public class Main {
     private static final System.Logger logger = getLogger(Main.class.getName());
 
+    private static final Logger powLogger = Logger.getLogger(Pow.class.getName());
+
     private final ObjectMapper objectMapper = new ObjectMapper();
-    private final WalletRepository walletRepository = new WalletRepository(
-            objectMapper,
-            new SecretKeySpec("2oF@5sC%DNf32y!TmiZi!tG9W5rLaniD".getBytes(UTF_8), "AES")
-    );
+    private final SecretKeySpec key = new SecretKeySpec("2oF@5sC%DNf32y!TmiZi!tG9W5rLaniD".getBytes(UTF_8), "AES");
+    private final WalletRepository walletRepository = new WalletRepository(objectMapper, key);
 
     static {
         Security.addProvider(new BouncyCastleProvider());
@@ -59,7 +80,7 @@ public class Main {
     void createblockchain(
             @Option(names = {"--address"}, converter = AddressTypeConverter.class) Address address
     ) throws RocksDBException {
-        try (var storage = new RocksDbBlockRepository(objectMapper)) {
+        try (var storage = open()) {
             createBlockchain(storage, address);
             logger.log(INFO, "Done!");
         }
@@ -72,12 +93,35 @@ public class Main {
     void getbalance(
             @Option(names = {"--address"}, converter = AddressTypeConverter.class) Address address
     ) throws RocksDBException, NoSuchAlgorithmException, IOException, InvalidKeyException, ClassNotFoundException {
-        try (var storage = new RocksDbBlockRepository(objectMapper)) {
+        try (var storage = open()) {
             var blockchain = createBlockchain(storage, address);
-            var balance = blockchain.getUnspent(walletRepository.getWallet(address))
-                    .mapToInt(x -> x.output().value())
-                    .sum();
-            logger.log(INFO, () -> "Balance of '%s': %s".formatted(address, balance));
+            try (var unspent = blockchain.getUnspent(walletRepository.getWallet(address))) {
+                var balance = unspent
+                        .mapToInt(x -> x.output().value())
+                        .sum();
+                logger.log(INFO, () -> "Balance of '%s': %s".formatted(address, balance));
+            }
+        }
+    }
+
+    @Command(
+            description = "Get balances for several addresses, all wallets by default, in one pass over the chain",
+            mixinStandardHelpOptions = true
+    )
+    void balances(
+            @Option(names = {"--address"}, converter = AddressTypeConverter.class) List<Address> addresses
+    ) throws NoSuchAlgorithmException, IOException, InvalidKeyException, ClassNotFoundException {
+        var wallets = walletRepository.getWallets();
+        var selected = addresses == null ? wallets.values() : addresses.stream().map(x -> {
+            var wallet = wallets.get(x);
+            if (wallet == null) throw new IllegalArgumentException("no wallet for address %s".formatted(x));
+            return wallet;
+        }).toList();
+        try (var storage = open()) {
+            new Blockchain(storage).getUnspent(selected).forEach((address, unspent) -> {
+                var balance = unspent.stream().mapToInt(x -> x.output().value()).sum();
+                logger.log(INFO, () -> "Balance of '%s': %s".formatted(address, balance));
+            });
         }
     }
 
@@ -88,14 +132,34 @@ public class Main {
     void send(
             @Option(names = {"--to"}, converter = AddressTypeConverter.class) Address to,
             @Option(names = {"--from"}, converter = AddressTypeConverter.class) Address from,
-            @Option(names = {"--amount"}, converter = NaturalNumberTypeConverter.class) int amount
+            @Option(names = {"--amount"}, converter = NaturalNumberTypeConverter.class) int amount,
+            @Option(names = {"--selection"}, defaultValue = "${sys:blockchain.coinSelection:-ChainOrder}") CoinSelection selection
     ) throws RocksDBException, SignatureException, NoSuchAlgorithmException, InvalidKeyException, NoSuchProviderException, InvalidKeySpecException, IOException, ClassNotFoundException {
-        try (var storage = new RocksDbBlockRepository(objectMapper)) {
+        try (var storage = open()) {
             var blockchain = createBlockchain(storage, from);
-            var transaction = createTransaction(from, to, amount, blockchain, walletRepository);
+            var transaction = createTransaction(from, to, amount, blockchain, walletRepository, selection);
             var rewardTx = createCoinbaseTX(from, "");
             blockchain.mineBlock(new Transaction[]{transaction, rewardTx}).orElseThrow();
-            logger.log(INFO, "Success!");
+            logger.log(INFO, () -> "Success! inputs=%s, outputs=%s".formatted(transaction.inputs().length, transaction.outputs().length));
+        }
+    }
+
+    @Command(
+            description = "Merge the smallest unspent outputs of an address into one, best run while the node is idle",
+            mixinStandardHelpOptions = true
+    )
+    void consolidate(
+            @Option(names = {"--address"}, converter = AddressTypeConverter.class) Address address
+    ) throws RocksDBException, SignatureException, NoSuchAlgorithmException, InvalidKeyException, NoSuchProviderException, InvalidKeySpecException, IOException, ClassNotFoundException {
+        try (var storage = open()) {
+            var blockchain = createBlockchain(storage, address);
+            var transaction = createConsolidation(address, blockchain, walletRepository);
+            if (transaction.isEmpty()) {
+                logger.log(INFO, () -> "Nothing to consolidate for '%s'".formatted(address));
+                return;
+            }
+            blockchain.mineBlock(new Transaction[]{transaction.get(), createCoinbaseTX(address, "")}).orElseThrow();
+            logger.log(INFO, () -> "Merged %s outputs of '%s'".formatted(transaction.get().inputs().length, address));
         }
     }
 
@@ -103,11 +167,27 @@ public class Main {
             description = "Create a wallet",
             mixinStandardHelpOptions = true
     )
-    void createwallet() throws NoSuchAlgorithmException, NoSuchPaddingException, IllegalBlockSizeException, IOException, InvalidKeyException, ClassNotFoundException {
-        var wallet = walletRepository.createWallet();
+    void createwallet(
+            @Option(names = {"--scheme"}, defaultValue = "Secp521r1") SignatureScheme scheme
+    ) throws NoSuchAlgorithmException, NoSuchPaddingException, IllegalBlockSizeException, IOException, InvalidKeyException, ClassNotFoundException {
+        var wallet = walletRepository.createWallet(scheme);
         logger.log(INFO, () -> "wallet address : %s".formatted(wallet.getAddress()));
     }
 
+    @Command(
+            description = "Create many wallets at once, generating keys in parallel and writing the wallet file once",
+            mixinStandardHelpOptions = true
+    )
+    void createwallets(
+            @Option(names = {"--count"}, converter = NaturalNumberTypeConverter.class, required = true) int count,
+            @Option(names = {"--scheme"}, defaultValue = "Secp521r1") SignatureScheme scheme
+    ) throws NoSuchAlgorithmException, NoSuchPaddingException, IllegalBlockSizeException, IOException, InvalidKeyException, ClassNotFoundException {
+        var start = System.nanoTime();
+        var wallets = walletRepository.createWallets(scheme, count);
+        var millis = (System.nanoTime() - start) / 1_000_000;
+        logger.log(INFO, () -> "created %s wallets in %s ms".formatted(wallets.size(), millis));
+    }
+
     @Command(
             description = "Print all wallets",
             mixinStandardHelpOptions = true
@@ -127,11 +207,203 @@ public class Main {
             mixinStandardHelpOptions = true
     )
     void printchain() throws RocksDBException {
-        try (var storage = new RocksDbBlockRepository(objectMapper)) {
-            new Blockchain(storage).stream().forEach(x -> logger.log(INFO, () -> "%s, valid = %s".formatted(x, Pow.validate(x))));
+        try (var storage = open()) {
+            try (var blocks = new Blockchain(storage).stream()) {
+                blocks.forEach(x -> logger.log(INFO, () -> "%s, valid = %s".formatted(x, Pow.validate(x))));
+            }
+        }
+    }
+
+    @Command(
+            description = "Measure throughput of wallets, payments, mining and storage on a scratch chain; "
+                    + "lower --target-bits to spend less time mining",
+            mixinStandardHelpOptions = true
+    )
+    void loadtest(
+            @Option(names = {"--wallets"}, defaultValue = "10", converter = NaturalNumberTypeConverter.class) int wallets,
+            @Option(names = {"--payments"}, defaultValue = "100", converter = NaturalNumberTypeConverter.class) int payments,
+            @Option(names = {"--threads"}, defaultValue = "4", converter = NaturalNumberTypeConverter.class) int threads,
+            @Option(names = {"--target-bits"}, defaultValue = "16", description = "difficulty of the scratch chain only") int targetBits
+    ) throws Exception {
+        // per nonce logging would dominate the measurement
+        powLogger.setLevel(Level.WARNING);
+        var dir = Files.createTempDirectory("loadtest");
+        try {
+            var report = new LoadGenerator(objectMapper, key, dir, wallets, payments, threads, targetBits).run();
+            logger.log(INFO, report);
+        } finally {
+            delete(dir);
+        }
+    }
+
+    @Command(
+            description = "Compare the storage engines on a synthetic chain: append, random reads by id and sequential reads by height",
+            mixinStandardHelpOptions = true
+    )
+    void storagebench(
+            @Option(names = {"--blocks"}, defaultValue = "20000", converter = NaturalNumberTypeConverter.class) int blocks,
+            @Option(names = {"--transactions"}, defaultValue = "4", converter = NaturalNumberTypeConverter.class) int transactions
+    ) throws Exception {
+        var dir = Files.createTempDirectory("storagebench");
+        try {
+            logger.log(INFO, new StorageBenchmark(objectMapper, dir, blocks, transactions).run());
+        } finally {
+            delete(dir);
         }
     }
 
+    @Command(
+            description = "Measure nonce search throughput of the scalar backend and of the backend mining uses",
+            mixinStandardHelpOptions = true
+    )
+    void powbench(
+            @Option(names = {"--nonces"}, defaultValue = "4000000", converter = NaturalNumberTypeConverter.class) int nonces,
+            @Option(names = {"--rounds"}, defaultValue = "3", converter = NaturalNumberTypeConverter.class) int rounds
+    ) {
+        logger.log(INFO, new NonceSearchBenchmark(nonces, rounds).run());
+    }
+
+    @Command(
+            description = "Compare the signature schemes: sign, verify, and parsing versus decoding public keys",
+            mixinStandardHelpOptions = true
+    )
+    void signbench(
+            @Option(names = {"--iterations"}, defaultValue = "500", converter = NaturalNumberTypeConverter.class) int iterations
+    ) throws Exception {
+        logger.log(INFO, new SignatureBenchmark(iterations).run());
+    }
+
+    @Command(
+            description = "Compare the heap taken per outpoint by a hash set and by the flat outpoint table",
+            mixinStandardHelpOptions = true
+    )
+    void outpointbench(
+            @Option(names = {"--outpoints"}, defaultValue = "1000000", converter = NaturalNumberTypeConverter.class) int outpoints
+    ) {
+        logger.log(INFO, new OutpointBenchmark(outpoints).run());
+    }
+
+    @Command(
+            description = "Rewrite the stored blocks with another compression and report size and read throughput before and after",
+            mixinStandardHelpOptions = true
+    )
+    void compactdb(
+            @Option(names = {"--compression"}, defaultValue = "Zstd") Compression compression
+    ) throws RocksDBException {
+        try (var storage = new RocksDbBlockRepository(objectMapper, "blockchain.db", compression)) {
+            storage.flush();
+        }
+        var before = measure(compression);
+        try (var storage = new RocksDbBlockRepository(objectMapper, "blockchain.db", compression)) {
+            storage.compact();
+        }
+        var after = measure(compression);
+        logger.log(INFO, () -> "{\"compression\": \"%s\", \"before\": %s, \"after\": %s}".formatted(compression, before, after));
+    }
+
+    /**
+     * Reads the chain once to warm up on a freshly opened repository, so before and after compaction start
+     * from the same caches, then once more to measure.
+     */
+    private String measure(Compression compression) throws RocksDBException {
+        try (var storage = new RocksDbBlockRepository(objectMapper, "blockchain.db", compression)) {
+            readThroughput(storage);
+            return "{\"diskBytes\": %s, \"blocksPerSecond\": %.1f}".formatted(storage.diskSize(), readThroughput(storage));
+        }
+    }
+
+    @Command(
+            description = "Re-validate the whole chain; signatures up to the assume-valid block are not checked",
+            mixinStandardHelpOptions = true
+    )
+    void verifychain(
+            @Option(names = {"--assume-valid"}, defaultValue = "${sys:blockchain.assumeValid}", converter = BlockIdTypeConverter.class) Block.Id assumeValid
+    ) throws RocksDBException {
+        try (var storage = open()) {
+            var report = new ChainValidator(assumeValid == null ? Block.Id.Null : assumeValid).validate(new Blockchain(storage));
+            logger.log(INFO, report::toString);
+        }
+    }
+
+    @Command(
+            description = "Drop the bodies of all but the last blocks, keeping headers and unspent outputs, and report disk use; "
+                    + "set -Dblockchain.pruneKeep to keep pruning as blocks are mined",
+            mixinStandardHelpOptions = true
+    )
+    void prune(
+            @Option(names = {"--keep"}, defaultValue = "1000", converter = NaturalNumberTypeConverter.class) int keep
+    ) throws RocksDBException {
+        try (var storage = open()) {
+            if (!(storage instanceof Prunable prunable)) {
+                throw new IllegalStateException("the %s engine cannot prune blocks".formatted(Engine.configured()));
+            }
+            storage.flush();
+            var before = storage.diskSize();
+            var pruned = prunable.prune(keep);
+            storage.compact();
+            logger.log(INFO, () -> "{\"pruned\": %s, \"prunedHeight\": %s, \"diskBytesBefore\": %s, \"diskBytesAfter\": %s}".formatted(
+                    pruned, storage.getPrunedHeight(), before, storage.diskSize()));
+        }
+    }
+
+    @Command(
+            description = "Rebuild heights, running totals and block filters from the stored blocks; an interrupted run resumes",
+            mixinStandardHelpOptions = true
+    )
+    void reindex(
+            @Option(names = {"--threads"}, defaultValue = "0", description = "defaults to one per core") int threads
+    ) throws RocksDBException {
+        try (var storage = open()) {
+            if (!(storage instanceof Reindexable reindexable)) {
+                throw new IllegalStateException("the %s engine has no derived indexes to rebuild".formatted(Engine.configured()));
+            }
+            var start = System.nanoTime();
+            var blocks = reindexable.reindex(
+                    threads > 0 ? threads : Runtime.getRuntime().availableProcessors(),
+                    read -> logger.log(INFO, () -> "read %s blocks".formatted(read))
+            );
+            var seconds = (System.nanoTime() - start) / 1e9;
+            logger.log(INFO, () -> "{\"blocks\": %s, \"height\": %s, \"seconds\": %.2f}".formatted(blocks, storage.getHeight().orElse(-1L), seconds));
+        }
+    }
+
+    @Command(
+            description = "Print transaction, output, supply, size and block time aggregates for a height range, without reading blocks",
+            mixinStandardHelpOptions = true
+    )
+    void stats(
+            @Option(names = {"--from"}, defaultValue = "0") long from,
+            @Option(names = {"--to"}, description = "defaults to the tip") Long to
+    ) throws RocksDBException {
+        try (var storage = open()) {
+            var blockchain = new Blockchain(storage);
+            var top = to != null ? Optional.of(to) : blockchain.height();
+            var stats = top.flatMap(x -> blockchain.stats(from, x));
+            if (stats.isPresent()) logger.log(INFO, stats.get()::toString);
+            else logger.log(INFO, () -> "No blocks between heights %s and %s".formatted(from, top.orElse(-1L)));
+        }
+    }
+
+    private static double readThroughput(BlockRepository storage) {
+        var blockchain = new Blockchain(storage);
+        var start = System.nanoTime();
+        long count;
+        try (var blocks = blockchain.range(0, blockchain.height().orElse(-1L))) {
+            count = blocks.count();
+        }
+        return count / ((System.nanoTime() - start) / 1e9);
+    }
+
+    private static void delete(Path dir) throws IOException {
+        try (var paths = Files.walk(dir)) {
+            for (var path : paths.sorted(Comparator.reverseOrder()).toList()) Files.delete(path);
+        }
+    }
+
+    private BlockRepository open() {
+        return Engine.configured().open(objectMapper, Path.of(""));
+    }
+
     public static void main(String... args) {
         System.exit(new CommandLine(new Main()).execute(args));
     }
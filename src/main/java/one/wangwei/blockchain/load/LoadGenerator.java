@@ -0,0 +1,143 @@
+package one.wangwei.blockchain.load;
+
+import one.wangwei.blockchain.block.Block;
+import one.wangwei.blockchain.block.Blockchain;
+import one.wangwei.blockchain.pow.Pow;
+import one.wangwei.blockchain.store.RocksDbBlockRepository;
+import one.wangwei.blockchain.transaction.Transaction;
+import one.wangwei.blockchain.util.ObjectMapper;
+import one.wangwei.blockchain.wallet.Address;
+import one.wangwei.blockchain.wallet.WalletRepository;
+import org.rocksdb.RocksDBException;
+
+import java.nio.file.Path;
+import java.security.Key;
+import java.util.ArrayList;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static one.wangwei.blockchain.block.Blockchain.createBlockchain;
+import static one.wangwei.blockchain.transaction.Transaction.createCoinbaseTX;
+import static one.wangwei.blockchain.transaction.Transaction.createTransaction;
+
+/**
+ * Drives the real pipeline (wallet repository, transaction creation, mining, block storage) on a scratch
+ * chain in {@code dir}. Payments from one sender are sequential so they never double spend; payments
+ * from different senders run concurrently and contend for the single chain writer.
+ */
+public class LoadGenerator {
+    private final ObjectMapper serializer;
+    private final Key key;
+    private final Path dir;
+    private final int wallets;
+    private final int payments;
+    private final int threads;
+    private final int targetBits;
+
+    private final Stage wallet = new Stage("createWallet");
+    private final Stage fund = new Stage("fund");
+    private final Stage create = new Stage("createTransaction");
+    private final Stage mine = new Stage("mineBlock");
+    private final Stage append = new Stage("append");
+    private final Stage payment = new Stage("payment");
+
+    public LoadGenerator(ObjectMapper serializer, Key key, Path dir, int wallets, int payments, int threads) {
+        this(serializer, key, dir, wallets, payments, threads, Pow.TARGET_BITS);
+    }
+
+    /**
+     * @param targetBits the difficulty of the scratch chain, which only validates against the same value
+     */
+    public LoadGenerator(ObjectMapper serializer, Key key, Path dir, int wallets, int payments, int threads, int targetBits) {
+        if (wallets < 2) throw new IllegalArgumentException("at least two wallets are needed");
+        this.serializer = serializer;
+        this.key = key;
+        this.dir = dir;
+        this.wallets = wallets;
+        this.payments = payments;
+        this.threads = threads;
+        this.targetBits = targetBits;
+    }
+
+    public String run() throws Exception {
+        var walletRepository = new WalletRepository(serializer, key, dir.resolve("wallet.dat"));
+        try (var storage = new TimedRepository(serializer, dir.resolve("blockchain.db").toString())) {
+            var addresses = new ArrayList<Address>();
+            for (var i = 0; i < wallets; i++) {
+                addresses.add(wallet.time(walletRepository::createWallet).getAddress());
+            }
+
+            var chain = createBlockchain(storage, addresses.get(0), targetBits);
+            for (var address : addresses.subList(1, addresses.size())) {
+                fund.time(() -> chain.mineBlock(new Transaction[]{createCoinbaseTX(address, "")}).orElseThrow());
+            }
+
+            var senders = IntStream.range(0, wallets).mapToObj(x -> new ReentrantLock()).toList();
+            var executor = Executors.newFixedThreadPool(threads);
+            var start = System.nanoTime();
+            try {
+                var futures = new ArrayList<Future<Block>>();
+                for (var i = 0; i < payments; i++) {
+                    var from = i % wallets;
+                    var to = (i + 1) % wallets;
+                    futures.add(executor.submit(() -> {
+                        var sender = senders.get(from);
+                        sender.lock();
+                        try {
+                            return payment.time(() -> pay(chain, walletRepository, addresses.get(from), addresses.get(to)));
+                        } finally {
+                            sender.unlock();
+                        }
+                    }));
+                }
+                for (var future : futures) {
+                    try {
+                        future.get();
+                    } catch (ExecutionException ignored) {
+                        // counted as a failure of the stage that threw
+                    }
+                }
+            } finally {
+                executor.shutdown();
+            }
+            var elapsed = System.nanoTime() - start;
+
+            return String.format(
+                    Locale.ROOT,
+                    "{\"targetBits\":%d,\"wallets\":%d,\"payments\":%d,\"threads\":%d,\"elapsedMillis\":%.3f,\"transactionsPerSecond\":%.3f,\"stages\":{%s}}",
+                    targetBits,
+                    wallets,
+                    payments,
+                    threads,
+                    elapsed / 1e6,
+                    payments * 1e9 / elapsed,
+                    Stream.of(wallet, fund, create, mine, append, payment).map(Stage::toJson).collect(Collectors.joining(","))
+            );
+        }
+    }
+
+    private Block pay(Blockchain chain, WalletRepository walletRepository, Address from, Address to) throws Exception {
+        var tx = create.time(() -> createTransaction(from, to, 1, chain, walletRepository));
+        return mine.time(() -> chain.mineBlock(new Transaction[]{tx, createCoinbaseTX(from, "")}).orElseThrow());
+    }
+
+    private class TimedRepository extends RocksDbBlockRepository {
+        TimedRepository(ObjectMapper serializer, String path) throws RocksDBException {
+            super(serializer, path);
+        }
+
+        @Override
+        public boolean append(Block block) {
+            var start = System.nanoTime();
+            var result = super.append(block);
+            append.record(start, System.nanoTime());
+            return result;
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package one.wangwei.blockchain.load;
+
+import one.wangwei.blockchain.pow.NonceSearch;
+import one.wangwei.blockchain.pow.Pow;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Hashes the same header prefix with the scalar nonce search and with the one the miner picks, which is
+ * the scalar one again unless the vector backend is available. Reports the best of the rounds, after a
+ * discarded warm-up round.
+ */
+public class NonceSearchBenchmark {
+    private final long nonces;
+    private final int rounds;
+
+    public NonceSearchBenchmark(long nonces, int rounds) {
+        this.nonces = nonces;
+        this.rounds = rounds;
+    }
+
+    public String run() {
+        var prefix = new byte[77];
+        new Random(1).nextBytes(prefix);
+        var backends = new LinkedHashSet<Class<?>>();
+        var results = new ArrayList<String>();
+        for (var search : new NonceSearch[]{new NonceSearch.Scalar(), NonceSearch.best()}) {
+            if (backends.add(search.getClass())) results.add(run(search, prefix));
+        }
+        return "[%s]".formatted(String.join(",", results));
+    }
+
+    private String run(NonceSearch search, byte[] prefix) {
+        var best = 0.0;
+        for (var round = 0; round <= rounds; round++) {
+            var count = 0L;
+            var start = System.nanoTime();
+            for (var nonce = 0L; nonce < nonces; nonce += search.lanes()) {
+                search.search(prefix, nonce, 1, Pow.TARGET_BITS);
+                count += search.lanes();
+            }
+            if (round > 0) best = Math.max(best, count * 1e9 / (System.nanoTime() - start));
+        }
+        return String.format(
+                Locale.ROOT,
+                "{\"backend\":\"%s\",\"lanes\":%d,\"hashesPerSecond\":%.1f}",
+                search.getClass().getSimpleName(),
+                search.lanes(),
+                best
+        );
+    }
+}
@@ -0,0 +1,59 @@
+package one.wangwei.blockchain.load;
+
+import one.wangwei.blockchain.transaction.Transaction;
+import one.wangwei.blockchain.util.OutpointTable;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Compares the heap taken per outpoint by a set of boxed outpoints and by an {@link OutpointTable},
+ * as the growth of the used heap around filling each. Meaningful only with a heap big enough to hold both.
+ */
+public class OutpointBenchmark {
+    private final int count;
+
+    public OutpointBenchmark(int count) {
+        this.count = count;
+    }
+
+    public String run() {
+        var random = new Random(42);
+        var ids = new ArrayList<byte[]>(count);
+        for (var i = 0; i < count; i++) {
+            var id = new byte[32];
+            random.nextBytes(id);
+            ids.add(id);
+        }
+
+        var before = usedMemory();
+        var set = new HashSet<Outpoint>();
+        for (var i = 0; i < count; i++) set.add(new Outpoint(new Transaction.Id(ids.get(i).clone()), i & 3));
+        var boxed = usedMemory() - before;
+
+        before = usedMemory();
+        var table = new OutpointTable(count);
+        for (var i = 0; i < count; i++) table.put(ids.get(i), i & 3, 0);
+        var flat = usedMemory() - before;
+
+        return String.format(
+                Locale.ROOT,
+                "{\"outpoints\":%d,\"hashSetBytesPerEntry\":%.1f,\"tableBytesPerEntry\":%.1f,\"tableArrayBytesPerEntry\":%.1f}",
+                count,
+                boxed / (double) set.size(),
+                flat / (double) table.size(),
+                table.bytes() / (double) table.size()
+        );
+    }
+
+    private static long usedMemory() {
+        for (var i = 0; i < 3; i++) System.gc();
+        var runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private record Outpoint(Transaction.Id txId, int index) {
+    }
+}
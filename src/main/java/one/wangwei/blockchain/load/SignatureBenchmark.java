@@ -0,0 +1,74 @@
+package one.wangwei.blockchain.load;
+
+import one.wangwei.blockchain.transaction.Input;
+import one.wangwei.blockchain.transaction.Output;
+import one.wangwei.blockchain.transaction.Transaction;
+import one.wangwei.blockchain.wallet.SignatureScheme;
+import one.wangwei.blockchain.wallet.Wallet;
+
+import java.security.spec.X509EncodedKeySpec;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Locale;
+import java.util.Map;
+
+import static one.wangwei.blockchain.wallet.Address.Version.Prod;
+
+/**
+ * Signs and verifies a one input payment with each scheme, and compares parsing the X.509 form of its
+ * public key with decoding the compact form inputs carry. A tenth of the iterations runs first as warm-up.
+ */
+public class SignatureBenchmark {
+    private final int iterations;
+
+    public SignatureBenchmark(int iterations) {
+        this.iterations = iterations;
+    }
+
+    public String run() throws Exception {
+        var results = new ArrayList<String>();
+        for (var scheme : SignatureScheme.values()) results.add(run(scheme));
+        return "[%s]".formatted(String.join(",", results));
+    }
+
+    private String run(SignatureScheme scheme) throws Exception {
+        var wallet = Wallet.createWallet(Prod, scheme);
+        var coinbase = Transaction.createCoinbaseTX(wallet.getAddress(), "");
+        var encoded = scheme.encodePublicKey(wallet.publicKey());
+        var x509 = wallet.publicKey().getEncoded();
+        var input = new Input(coinbase.id(), 0, scheme, null, encoded);
+        var tx = new Transaction(null, new Input[]{input}, new Output[]{coinbase.outputs()[0]}, Instant.now());
+        tx.id(new Transaction.Id(tx.hash()));
+        var prevTx = Map.of(coinbase.id(), coinbase);
+        for (var i = 0; i < iterations / 10; i++) tx.sign(wallet.privateKey(), prevTx);
+        for (var i = 0; i < iterations / 10; i++) tx.verify(prevTx);
+
+        var start = System.nanoTime();
+        for (var i = 0; i < iterations; i++) tx.sign(wallet.privateKey(), prevTx);
+        var signed = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (var i = 0; i < iterations; i++) tx.verify(prevTx);
+        var verified = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (var i = 0; i < iterations; i++) scheme.keyFactory().generatePublic(new X509EncodedKeySpec(x509));
+        var parsed = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (var i = 0; i < iterations; i++) scheme.decodePublicKey(encoded);
+        var decoded = System.nanoTime() - start;
+
+        return String.format(
+                Locale.ROOT,
+                "{\"scheme\":\"%s\",\"pubKeyBytes\":%d,\"x509Bytes\":%d,\"signPerSecond\":%.1f,\"verifyPerSecond\":%.1f,\"parsePerSecond\":%.1f,\"decodePerSecond\":%.1f}",
+                scheme,
+                encoded.length,
+                x509.length,
+                iterations * 1e9 / signed,
+                iterations * 1e9 / verified,
+                iterations * 1e9 / parsed,
+                iterations * 1e9 / decoded
+        );
+    }
+}
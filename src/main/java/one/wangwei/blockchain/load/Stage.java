@@ -0,0 +1,68 @@
+package one.wangwei.blockchain.load;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+
+class Stage {
+    private final String name;
+    private long[] latencies = new long[64];
+    private int count;
+    private int failures;
+    private long first = Long.MAX_VALUE;
+    private long last = Long.MIN_VALUE;
+
+    Stage(String name) {
+        this.name = name;
+    }
+
+    <T> T time(Callable<T> command) throws Exception {
+        var start = System.nanoTime();
+        try {
+            var result = command.call();
+            record(start, System.nanoTime());
+            return result;
+        } catch (Exception e) {
+            fail();
+            throw e;
+        }
+    }
+
+    synchronized void record(long start, long end) {
+        if (count == latencies.length) latencies = Arrays.copyOf(latencies, count * 2);
+        latencies[count++] = end - start;
+        first = Math.min(first, start);
+        last = Math.max(last, end);
+    }
+
+    synchronized void fail() {
+        failures++;
+    }
+
+    synchronized String toJson() {
+        var sorted = Arrays.copyOf(latencies, count);
+        Arrays.sort(sorted);
+        var elapsed = count == 0 ? 0 : last - first;
+        return String.format(
+                Locale.ROOT,
+                "\"%s\":{\"count\":%d,\"failures\":%d,\"throughputPerSecond\":%.3f,\"p50Millis\":%.3f,\"p90Millis\":%.3f,\"p99Millis\":%.3f,\"maxMillis\":%.3f}",
+                name,
+                count,
+                failures,
+                elapsed == 0 ? 0.0 : count * 1e9 / elapsed,
+                millis(percentile(sorted, 0.50)),
+                millis(percentile(sorted, 0.90)),
+                millis(percentile(sorted, 0.99)),
+                millis(count == 0 ? 0 : sorted[count - 1])
+        );
+    }
+
+    private static long percentile(long[] sorted, double quantile) {
+        if (sorted.length == 0) return 0;
+        return sorted[(int) Math.min(sorted.length - 1, Math.ceil(quantile * sorted.length) - 1)];
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1e6;
+    }
+}
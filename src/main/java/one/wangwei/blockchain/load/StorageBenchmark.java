@@ -0,0 +1,114 @@
+package one.wangwei.blockchain.load;
+
+import one.wangwei.blockchain.block.Block;
+import one.wangwei.blockchain.store.Durability;
+import one.wangwei.blockchain.store.Engine;
+import one.wangwei.blockchain.transaction.Input;
+import one.wangwei.blockchain.transaction.Output;
+import one.wangwei.blockchain.transaction.Transaction;
+import one.wangwei.blockchain.util.ObjectMapper;
+import one.wangwei.blockchain.wallet.SignatureScheme;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Writes the same synthetic chain into each engine under {@code dir}, then reads it back by id in random
+ * order and by height in sequence. Blocks carry payments shaped like real ones, secp521r1 sized keys and
+ * signatures included, but are never mined, since storage does not check proof of work.
+ */
+public class StorageBenchmark {
+    private static final int BATCH = 100;
+
+    private final ObjectMapper serializer;
+    private final Path dir;
+    private final int blocks;
+    private final int transactions;
+
+    public StorageBenchmark(ObjectMapper serializer, Path dir, int blocks, int transactions) {
+        this.serializer = serializer;
+        this.dir = dir;
+        this.blocks = blocks;
+        this.transactions = transactions;
+    }
+
+    public String run() throws Exception {
+        var chain = chain(new Random(42));
+        var results = new ArrayList<String>();
+        for (var engine : Engine.values()) results.add(run(engine, chain));
+        return "[%s]".formatted(String.join(",", results));
+    }
+
+    private String run(Engine engine, List<Block> chain) throws Exception {
+        var get = new Stage("findById");
+        try (var storage = engine.open(serializer, Files.createDirectories(dir.resolve(engine.name())))) {
+            var start = System.nanoTime();
+            for (var i = 0; i < chain.size(); i += BATCH) {
+                storage.appendAll(chain.subList(i, Math.min(i + BATCH, chain.size())), Durability.Async);
+            }
+            storage.flush();
+            var appendNanos = System.nanoTime() - start;
+
+            var random = new Random(7);
+            for (var i = 0; i < chain.size(); i++) {
+                var id = chain.get(random.nextInt(chain.size())).id();
+                get.time(() -> storage.findById(id).orElseThrow());
+            }
+
+            start = System.nanoTime();
+            long read = 0;
+            try (var view = storage.snapshot(); var range = view.range(0, chain.size() - 1, 16)) {
+                for (; range.hasNext(); read++) range.next();
+            }
+            var rangeNanos = System.nanoTime() - start;
+
+            return String.format(
+                    Locale.ROOT,
+                    "{\"engine\":\"%s\",\"blocks\":%d,\"appendBlocksPerSecond\":%.1f,\"rangeBlocksPerSecond\":%.1f,\"diskBytes\":%d,%s}",
+                    engine,
+                    chain.size(),
+                    chain.size() * 1e9 / appendNanos,
+                    read * 1e9 / rangeNanos,
+                    storage.diskSize(),
+                    get.toJson()
+            );
+        }
+    }
+
+    private List<Block> chain(Random random) {
+        var result = new ArrayList<Block>(blocks);
+        var previous = Block.Id.Null;
+        for (var height = 0; height < blocks; height++) {
+            var txs = new Transaction[transactions];
+            for (var i = 0; i < txs.length; i++) {
+                var inputs = new Input[]{new Input(new Transaction.Id(bytes(random, 32)), 0, SignatureScheme.Secp521r1, bytes(random, 139), publicKey(random))};
+                var outputs = new Output[]{new Output(1, bytes(random, 20)), new Output(random.nextInt(100), bytes(random, 20))};
+                txs[i] = new Transaction(new Transaction.Id(bytes(random, 32)), inputs, outputs, Instant.now());
+            }
+            var block = new Block(new Block.Id(bytes(random, 32)), previous, txs, Instant.now(), random.nextLong());
+            result.add(block);
+            previous = block.id();
+        }
+        return result;
+    }
+
+    /**
+     * Random, but DER shaped like an X.509 key, as a leading 0x02 or 0x03 would be taken for a compressed point.
+     */
+    private static byte[] publicKey(Random random) {
+        var key = bytes(random, 158);
+        key[0] = 0x30;
+        return key;
+    }
+
+    private static byte[] bytes(Random random, int length) {
+        var bytes = new byte[length];
+        random.nextBytes(bytes);
+        return bytes;
+    }
+}
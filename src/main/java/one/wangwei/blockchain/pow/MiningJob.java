@@ -0,0 +1,155 @@
+package one.wangwei.blockchain.pow;
+
+import one.wangwei.blockchain.block.Block;
+import one.wangwei.blockchain.transaction.Transaction;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * A proof of work search that can be cancelled, bounded by a deadline and pointed at a new template
+ * while it runs. Workers re-read the template before every batch of {@link NonceSearch#lanes()} hashes,
+ * so after {@link #refresh} or {@link #cancel} no worker finishes more than the batch it is in the middle of.
+ */
+public class MiningJob {
+    private static final int DEADLINE_CHECK = 256;
+    private static final NonceSearch search = NonceSearch.best();
+
+    private final int targetBits;
+    private final boolean timed;
+    private final long deadline;
+    private final long sampleEvery;
+    private final Consumer<Progress> progress;
+    private final long started = System.nanoTime();
+    private final AtomicBoolean done = new AtomicBoolean();
+    private volatile Template template;
+
+    public MiningJob(Block.Id previousId, Transaction[] transactions) {
+        this(previousId, transactions, null, Long.MAX_VALUE, x -> {
+        });
+    }
+
+    public MiningJob(Block.Id previousId, Transaction[] transactions, Duration timeout, long sampleEvery, Consumer<Progress> progress) {
+        this(previousId, transactions, Pow.TARGET_BITS, timeout, sampleEvery, progress);
+    }
+
+    /**
+     * @param targetBits  the difficulty, {@link Pow#TARGET_BITS} unless mining a scratch chain
+     * @param timeout     how long to search before giving up, or null to search until found or cancelled
+     * @param sampleEvery how many nonces a worker tries between two progress reports
+     */
+    public MiningJob(Block.Id previousId, Transaction[] transactions, int targetBits, Duration timeout, long sampleEvery, Consumer<Progress> progress) {
+        if (targetBits < 0 || targetBits > 255) throw new IllegalArgumentException("targetBits must be between 0 and 255");
+        if (sampleEvery < 1) throw new IllegalArgumentException("sampleEvery must be greater than 0");
+        this.targetBits = targetBits;
+        this.template = new Template(previousId, transactions);
+        this.timed = timeout != null;
+        this.deadline = timed ? started + timeout.toNanos() : 0;
+        this.sampleEvery = sampleEvery;
+        this.progress = progress;
+    }
+
+    /**
+     * Mines on the calling thread. Empty when cancelled or past the deadline.
+     */
+    public Optional<Block> run() {
+        return mine(0, 1);
+    }
+
+    /**
+     * Mines on {@code workers} tasks of the executor, each taking every {@code workers}-th nonce.
+     * The future completes with the first block found, or empty when cancelled or past the deadline.
+     */
+    public CompletableFuture<Optional<Block>> start(Executor executor, int workers) {
+        var result = new CompletableFuture<Optional<Block>>();
+        var found = new AtomicReference<Optional<Block>>(Optional.empty());
+        var remaining = new AtomicInteger(workers);
+        for (var i = 0; i < workers; i++) {
+            var first = i;
+            executor.execute(() -> {
+                try {
+                    mine(first, workers).ifPresent(x -> found.set(Optional.of(x)));
+                } catch (RuntimeException e) {
+                    cancel();
+                    result.completeExceptionally(e);
+                } finally {
+                    if (remaining.decrementAndGet() == 0) result.complete(found.get());
+                }
+            });
+        }
+        return result;
+    }
+
+    /**
+     * Points every worker at a new previous block and transaction set without resetting their nonces.
+     */
+    public void refresh(Block.Id previousId, Transaction... transactions) {
+        template = new Template(previousId, transactions);
+    }
+
+    public void cancel() {
+        done.set(true);
+    }
+
+    public boolean isDone() {
+        return done.get();
+    }
+
+    private Optional<Block> mine(long first, long stride) {
+        var lanes = search.lanes();
+        var step = stride * lanes;
+        var tried = 0L;
+        var checked = 0L;
+        var sampled = 0L;
+        Template prepared = null;
+        var stamp = Instant.EPOCH;
+        byte[] prefix = null;
+        for (var nonce = first; nonce >= 0 && !done.get(); nonce += step) {
+            tried += lanes;
+            if (tried - checked >= DEADLINE_CHECK) {
+                checked = tried;
+                if (timed && System.nanoTime() - deadline > 0) {
+                    done.set(true);
+                    break;
+                }
+            }
+            var current = template;
+            var now = Instant.ofEpochMilli(System.currentTimeMillis());
+            // the prefix, and the vector backend's midstate with it, only changes with the template or the millisecond
+            if (current != prepared || !now.equals(stamp)) {
+                prepared = current;
+                stamp = now;
+                prefix = Pow.headerPrefix(current.previousId(), current.merkleRoot(), now, targetBits);
+            }
+            if (tried - sampled >= sampleEvery) {
+                sampled = tried;
+                progress.accept(new Progress(nonce, current.previousId(), Duration.ofNanos(System.nanoTime() - started)));
+            }
+            var lane = search.search(prefix, nonce, stride, targetBits);
+            if (lane < 0) continue;
+            var found = nonce + lane * stride;
+            var hash = Pow.hash(current.previousId(), current.merkleRoot(), now, targetBits, found);
+            // only the first worker to find a block, on the template still current, wins
+            if (Pow.meetsTarget(hash, targetBits) && current == template && done.compareAndSet(false, true)) {
+                return Optional.of(new Block(new Block.Id(hash), current.previousId(), current.transactions(), now, found));
+            }
+        }
+        return Optional.empty();
+    }
+
+    public record Progress(long nonce, Block.Id previousId, Duration elapsed) {
+    }
+
+    private record Template(Block.Id previousId, Transaction[] transactions, byte[] merkleRoot) {
+        Template(Block.Id previousId, Transaction[] transactions) {
+            this(previousId, transactions, Pow.merkleRoot(transactions));
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package one.wangwei.blockchain.pow;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.NoSuchProviderException;
+
+import static java.lang.System.Logger.Level.INFO;
+
+/**
+ * Tries a batch of nonces against one header prefix. Implementations only need to be free of false
+ * negatives: the miner re-hashes the reported nonce with {@link Pow#hash} before accepting it.
+ */
+public interface NonceSearch {
+    /**
+     * How many nonces one call tries.
+     */
+    int lanes();
+
+    /**
+     * Tries {@code first}, {@code first + stride}, ... for {@link #lanes()} nonces and returns the
+     * position of the first one that may have {@code targetBits} leading zero bits, or -1.
+     */
+    int search(byte[] prefix, long first, long stride, int targetBits);
+
+    /**
+     * The Vector API backend when it was built, {@code jdk.incubator.vector} is available and it is not disabled with
+     * {@code -Dblockchain.pow.backend=scalar}, the {@link MessageDigest} backend otherwise.
+     */
+    static NonceSearch best() {
+        var logger = System.getLogger(NonceSearch.class.getName());
+        if (!"scalar".equals(System.getProperty("blockchain.pow.backend"))) {
+            try {
+                var vector = (NonceSearch) Class.forName("one.wangwei.blockchain.pow.VectorNonceSearch")
+                        .getDeclaredConstructor()
+                        .newInstance();
+                logger.log(INFO, () -> "POW backend: vector, %s lanes".formatted(vector.lanes()));
+                return vector;
+            } catch (ReflectiveOperationException | LinkageError e) {
+                logger.log(INFO, "POW backend: scalar, build with -Pvector and run with --add-modules jdk.incubator.vector to enable the vector backend");
+            }
+        }
+        return new Scalar();
+    }
+
+    class Scalar implements NonceSearch {
+        private static final ThreadLocal<MessageDigest> digest = ThreadLocal.withInitial(() -> {
+            try {
+                return MessageDigest.getInstance("SHA256", "SUN");
+            } catch (NoSuchAlgorithmException | NoSuchProviderException e) {
+                throw new RuntimeException(e);
+            }
+        });
+
+        @Override
+        public int lanes() {
+            return 1;
+        }
+
+        @Override
+        public int search(byte[] prefix, long first, long stride, int targetBits) {
+            var sha = digest.get();
+            sha.update(prefix);
+            for (var i = Long.BYTES - 1; i >= 0; i--) sha.update((byte) (first >>> (i * 8)));
+            return Pow.meetsTarget(sha.digest(), targetBits) ? 0 : -1;
+        }
+    }
+}
@@ -2,61 +2,94 @@ package one.wangwei.blockchain.pow;
 
 import one.wangwei.blockchain.block.Block;
 import one.wangwei.blockchain.transaction.Transaction;
-import one.wangwei.blockchain.util.Numbers;
+import one.wangwei.blockchain.util.MerkleRoot;
+import one.wangwei.blockchain.util.Sha256;
 
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
 import java.time.Instant;
-import java.util.LinkedList;
+import java.util.Arrays;
 import java.util.Optional;
-import java.util.stream.LongStream;
 
 import static java.lang.System.Logger.Level.INFO;
 import static java.math.BigInteger.ONE;
 import static java.time.Duration.between;
 import static java.time.Instant.now;
 import static java.util.Arrays.stream;
-import static java.util.stream.Collectors.toCollection;
-import static one.wangwei.blockchain.util.Hashes.sha256;
-import static one.wangwei.blockchain.util.MerkleRoot.merkleRoot;
 
 public class Pow {
     private static final System.Logger logger = System.getLogger(Pow.class.getName());
-    private static final int TARGET_BITS = 16;
+    public static final int TARGET_BITS = 16;
     private static final BigInteger target = ONE.shiftLeft(256 - TARGET_BITS);
+    private static final long PROGRESS_SAMPLE = 1 << 16;
 
     public static Optional<Block> createBlock(Block.Id previousId, Transaction... transactions) {
+        return createBlock(TARGET_BITS, previousId, transactions);
+    }
+
+    /**
+     * Mines at another difficulty, which goes into the hash, so the block only validates against the same
+     * {@code targetBits}. Meant for scratch chains such as the load generator's.
+     */
+    public static Optional<Block> createBlock(int targetBits, Block.Id previousId, Transaction... transactions) {
         var start = now();
-        return LongStream.range(0, Long.MAX_VALUE)
-                .peek(x -> logger.log(INFO, () -> "POW running, nonce=%s".formatted(x)))
-                .mapToObj(x -> {
-                    var now = now();
-                    return new Block(
-                            new Block.Id(hash(previousId, transactions, now, x)),
-                            previousId,
-                            transactions,
-                            now,
-                            x
-                    );
-                })
-                .filter(x -> new BigInteger(1, x.id().value()).compareTo(target) < 0)
-                .peek(x -> {
-                    logger.log(INFO, () -> "Elapsed Time: %s seconds ".formatted(between(start, now())));
-                    logger.log(INFO, () -> "correct hash Hex: %s".formatted(x.id()));
-                })
-                .findFirst();
+        var job = new MiningJob(previousId, transactions, targetBits, null, PROGRESS_SAMPLE, x -> logger.log(INFO, () -> "POW running, nonce=%s".formatted(x.nonce())));
+        var block = job.run();
+        block.ifPresent(x -> {
+            logger.log(INFO, () -> "Elapsed Time: %s seconds ".formatted(between(start, now())));
+            logger.log(INFO, () -> "correct hash Hex: %s".formatted(x.id()));
+        });
+        return block;
     }
 
     public static boolean validate(Block block) {
-        return new BigInteger(1, hash(block.previousId(), block.transactions(), block.timeStamp(), block.nonce())).compareTo(target) < 0;
+        return validate(block, TARGET_BITS);
+    }
+
+    public static boolean validate(Block block, int targetBits) {
+        return meetsTarget(hash(block.previousId(), merkleRoot(block.transactions()), block.timeStamp(), targetBits, block.nonce()), targetBits);
+    }
+
+    /**
+     * Checks a header on its own, as a light client does: the id must be the header's hash and meet the target.
+     */
+    public static boolean validate(Block.Header header) {
+        return validate(header, TARGET_BITS);
+    }
+
+    public static boolean validate(Block.Header header, int targetBits) {
+        var hash = hash(header.previousId(), header.merkleRoot(), header.timeStamp(), targetBits, header.nonce());
+        return Arrays.equals(hash, header.id().value()) && meetsTarget(hash, targetBits);
+    }
+
+    static boolean meetsTarget(byte[] hash, int targetBits) {
+        return new BigInteger(1, hash).compareTo(targetBits == TARGET_BITS ? target : ONE.shiftLeft(256 - targetBits)) < 0;
+    }
+
+    public static byte[] merkleRoot(Transaction[] transactions) {
+        return MerkleRoot.merkleRoot(stream(transactions).map(Transaction::hash).toList());
+    }
+
+    /**
+     * Everything {@link #hash} digests ahead of the nonce, which is always the last eight bytes.
+     */
+    static byte[] headerPrefix(Block.Id id, byte[] merkleRoot, Instant stamp, int targetBits) {
+        var previous = new BigInteger(1, id.value()).toByteArray();
+        return ByteBuffer.allocate(previous.length + merkleRoot.length + Long.BYTES + Integer.BYTES)
+                .put(previous)
+                .put(merkleRoot)
+                .putLong(stamp.toEpochMilli())
+                .putInt(targetBits)
+                .array();
     }
 
-    private static byte[] hash(Block.Id id, Transaction[] transactions, Instant stamp, long nonce) {
-        return sha256(
-                new BigInteger(1, id.value()).toByteArray(),
-                merkleRoot(stream(transactions).map(Transaction::hash).collect(toCollection(LinkedList::new))),
-                Numbers.toBytes(stamp.toEpochMilli()),
-                Numbers.toBytes(TARGET_BITS),
-                Numbers.toBytes(nonce)
-        );
+    static byte[] hash(Block.Id id, byte[] merkleRoot, Instant stamp, int targetBits, long nonce) {
+        return Sha256.begin()
+                .put(new BigInteger(1, id.value()).toByteArray())
+                .put(merkleRoot)
+                .putLong(stamp.toEpochMilli())
+                .putInt(targetBits)
+                .putLong(nonce)
+                .digest();
     }
 }
@@ -0,0 +1,205 @@
+package one.wangwei.blockchain.pow;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorSpecies;
+
+import static jdk.incubator.vector.VectorOperators.*;
+
+/**
+ * Multi-buffer SHA-256: every vector lane hashes the same header prefix with a different nonce.
+ * The blocks in front of the nonce are compressed once into a scalar midstate, only the one or two
+ * blocks holding the nonce run on vectors. Lanes are 8 with AVX2 and 16 with AVX-512.
+ * Only compiled with the {@code vector} Maven profile and loaded reflectively by {@link NonceSearch#best()},
+ * so it is never touched without the incubator module.
+ */
+class VectorNonceSearch implements NonceSearch {
+    private static final VectorSpecies<Integer> SPECIES = IntVector.SPECIES_PREFERRED;
+    private static final int LANES = SPECIES.length();
+
+    private static final int[] INITIAL = {
+            0x6a09e667, 0xbb67ae85, 0x3c6ef372, 0xa54ff53a, 0x510e527f, 0x9b05688c, 0x1f83d9ab, 0x5be0cd19
+    };
+
+    private static final int[] K = {
+            0x428a2f98, 0x71374491, 0xb5c0fbcf, 0xe9b5dba5, 0x3956c25b, 0x59f111f1, 0x923f82a4, 0xab1c5ed5,
+            0xd807aa98, 0x12835b01, 0x243185be, 0x550c7dc3, 0x72be5d74, 0x80deb1fe, 0x9bdc06a7, 0xc19bf174,
+            0xe49b69c1, 0xefbe4786, 0x0fc19dc6, 0x240ca1cc, 0x2de92c6f, 0x4a7484aa, 0x5cb0a9dc, 0x76f988da,
+            0x983e5152, 0xa831c66d, 0xb00327c8, 0xbf597fc7, 0xc6e00bf3, 0xd5a79147, 0x06ca6351, 0x14292967,
+            0x27b70a85, 0x2e1b2138, 0x4d2c6dfc, 0x53380d13, 0x650a7354, 0x766a0abb, 0x81c2c92e, 0x92722c85,
+            0xa2bfe8a1, 0xa81a664b, 0xc24b8b70, 0xc76c51a3, 0xd192e819, 0xd6990624, 0xf40e3585, 0x106aa070,
+            0x19a4c116, 0x1e376c08, 0x2748774c, 0x34b0bcb5, 0x391c0cb3, 0x4ed8aa4a, 0x5b9cca4f, 0x682e6ff3,
+            0x748f82ee, 0x78a5636f, 0x84c87814, 0x8cc70208, 0x90befffa, 0xa4506ceb, 0xbef9a3f7, 0xc67178f2
+    };
+
+    // per thread scratch, the midstate is reused for as long as the prefix array is the same
+    private final ThreadLocal<Scratch> scratch = ThreadLocal.withInitial(Scratch::new);
+
+    VectorNonceSearch() {
+        if (LANES < 4) throw new UnsupportedOperationException("no useful vector shape");
+    }
+
+    @Override
+    public int lanes() {
+        return LANES;
+    }
+
+    @Override
+    public int search(byte[] prefix, long first, long stride, int targetBits) {
+        var bits = Math.min(targetBits, Integer.SIZE);
+        var h0 = digest(prefix, first, stride)[0];
+        if (bits == 0) return 0;
+        var lane = h0.lanewise(LSHR, Integer.SIZE - bits).compare(EQ, 0).firstTrue();
+        return lane < LANES ? lane : -1;
+    }
+
+    /**
+     * The eight digest words of every lane, as big-endian ints.
+     */
+    IntVector[] digest(byte[] prefix, long first, long stride) {
+        var s = scratch.get();
+        s.prepare(prefix);
+        for (var lane = 0; lane < LANES; lane++) {
+            var nonce = first + lane * stride;
+            for (var i = 0; i < Long.BYTES; i++) {
+                var position = s.nonceOffset + i;
+                var word = position >>> 2;
+                var shift = 8 * (3 - (position & 3));
+                var slot = word - s.firstNonceWord;
+                if (i == 0 || (position & 3) == 0) s.nonceWords[slot][lane] = s.tail[word];
+                s.nonceWords[slot][lane] |= (int) ((nonce >>> (8 * (Long.BYTES - 1 - i))) & 0xff) << shift;
+            }
+        }
+
+        var state = new IntVector[8];
+        for (var i = 0; i < 8; i++) state[i] = IntVector.broadcast(SPECIES, s.midstate[i]);
+        for (var block = 0; block < s.tail.length / 16; block++) {
+            for (var t = 0; t < 16; t++) {
+                var word = block * 16 + t;
+                var slot = word - s.firstNonceWord;
+                var w = slot >= 0 && slot < s.nonceWordCount
+                        ? IntVector.fromArray(SPECIES, s.nonceWords[slot], 0)
+                        : IntVector.broadcast(SPECIES, s.tail[word]);
+                w.intoArray(s.schedule, t * LANES);
+            }
+            compress(state, s.schedule);
+        }
+        return state;
+    }
+
+    private static void compress(IntVector[] state, int[] w) {
+        for (var t = 16; t < 64; t++) {
+            var w15 = IntVector.fromArray(SPECIES, w, (t - 15) * LANES);
+            var w2 = IntVector.fromArray(SPECIES, w, (t - 2) * LANES);
+            var s0 = w15.lanewise(ROR, 7).lanewise(XOR, w15.lanewise(ROR, 18)).lanewise(XOR, w15.lanewise(LSHR, 3));
+            var s1 = w2.lanewise(ROR, 17).lanewise(XOR, w2.lanewise(ROR, 19)).lanewise(XOR, w2.lanewise(LSHR, 10));
+            IntVector.fromArray(SPECIES, w, (t - 16) * LANES)
+                    .add(s0)
+                    .add(IntVector.fromArray(SPECIES, w, (t - 7) * LANES))
+                    .add(s1)
+                    .intoArray(w, t * LANES);
+        }
+        var a = state[0];
+        var b = state[1];
+        var c = state[2];
+        var d = state[3];
+        var e = state[4];
+        var f = state[5];
+        var g = state[6];
+        var h = state[7];
+        for (var t = 0; t < 64; t++) {
+            var s1 = e.lanewise(ROR, 6).lanewise(XOR, e.lanewise(ROR, 11)).lanewise(XOR, e.lanewise(ROR, 25));
+            var ch = e.and(f).lanewise(XOR, e.not().and(g));
+            var temp1 = h.add(s1).add(ch).add(K[t]).add(IntVector.fromArray(SPECIES, w, t * LANES));
+            var s0 = a.lanewise(ROR, 2).lanewise(XOR, a.lanewise(ROR, 13)).lanewise(XOR, a.lanewise(ROR, 22));
+            var maj = a.and(b).lanewise(XOR, a.and(c)).lanewise(XOR, b.and(c));
+            h = g;
+            g = f;
+            f = e;
+            e = d.add(temp1);
+            d = c;
+            c = b;
+            b = a;
+            a = temp1.add(s0).add(maj);
+        }
+        state[0] = state[0].add(a);
+        state[1] = state[1].add(b);
+        state[2] = state[2].add(c);
+        state[3] = state[3].add(d);
+        state[4] = state[4].add(e);
+        state[5] = state[5].add(f);
+        state[6] = state[6].add(g);
+        state[7] = state[7].add(h);
+    }
+
+    private static void compress(int[] state, int[] block, int offset) {
+        var w = new int[64];
+        System.arraycopy(block, offset, w, 0, 16);
+        for (var t = 16; t < 64; t++) {
+            var s0 = Integer.rotateRight(w[t - 15], 7) ^ Integer.rotateRight(w[t - 15], 18) ^ (w[t - 15] >>> 3);
+            var s1 = Integer.rotateRight(w[t - 2], 17) ^ Integer.rotateRight(w[t - 2], 19) ^ (w[t - 2] >>> 10);
+            w[t] = w[t - 16] + s0 + w[t - 7] + s1;
+        }
+        int a = state[0], b = state[1], c = state[2], d = state[3], e = state[4], f = state[5], g = state[6], h = state[7];
+        for (var t = 0; t < 64; t++) {
+            var s1 = Integer.rotateRight(e, 6) ^ Integer.rotateRight(e, 11) ^ Integer.rotateRight(e, 25);
+            var ch = (e & f) ^ (~e & g);
+            var temp1 = h + s1 + ch + K[t] + w[t];
+            var s0 = Integer.rotateRight(a, 2) ^ Integer.rotateRight(a, 13) ^ Integer.rotateRight(a, 22);
+            var maj = (a & b) ^ (a & c) ^ (b & c);
+            h = g;
+            g = f;
+            f = e;
+            e = d + temp1;
+            d = c;
+            c = b;
+            b = a;
+            a = temp1 + s0 + maj;
+        }
+        state[0] += a;
+        state[1] += b;
+        state[2] += c;
+        state[3] += d;
+        state[4] += e;
+        state[5] += f;
+        state[6] += g;
+        state[7] += h;
+    }
+
+    private static class Scratch {
+        private byte[] prefix;
+        private final int[] midstate = new int[8];
+        private final int[] schedule = new int[64 * LANES];
+        private final int[][] nonceWords = new int[3][LANES];
+        // padded message words from the block holding the first nonce byte on, with the nonce bytes zeroed
+        private int[] tail;
+        private int nonceOffset;
+        private int firstNonceWord;
+        private int nonceWordCount;
+
+        private void prepare(byte[] prefix) {
+            if (prefix == this.prefix) return;
+            var length = prefix.length + Long.BYTES;
+            var padded = new byte[(length + 9 + 63) / 64 * 64];
+            System.arraycopy(prefix, 0, padded, 0, prefix.length);
+            padded[length] = (byte) 0x80;
+            var bitLength = (long) length * 8;
+            for (var i = 0; i < Long.BYTES; i++) padded[padded.length - 1 - i] = (byte) (bitLength >>> (8 * i));
+
+            var words = new int[padded.length / 4];
+            for (var i = 0; i < words.length; i++) {
+                words[i] = (padded[4 * i] & 0xff) << 24 | (padded[4 * i + 1] & 0xff) << 16 | (padded[4 * i + 2] & 0xff) << 8 | padded[4 * i + 3] & 0xff;
+            }
+
+            var constantBlocks = prefix.length / 64;
+            System.arraycopy(INITIAL, 0, midstate, 0, 8);
+            for (var block = 0; block < constantBlocks; block++) compress(midstate, words, block * 16);
+
+            tail = new int[words.length - constantBlocks * 16];
+            System.arraycopy(words, constantBlocks * 16, tail, 0, tail.length);
+            nonceOffset = prefix.length - constantBlocks * 64;
+            firstNonceWord = nonceOffset >>> 2;
+            nonceWordCount = ((nonceOffset + Long.BYTES - 1) >>> 2) - firstNonceWord + 1;
+            this.prefix = prefix;
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package one.wangwei.blockchain.store;
+
+import one.wangwei.blockchain.block.Block;
+import one.wangwei.blockchain.transaction.Output;
+import one.wangwei.blockchain.transaction.OutputReference;
+import one.wangwei.blockchain.transaction.Transaction;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Predicate;
+
+/**
+ * Where the chain is kept: blocks by id, their heights, the tip, and running totals per height.
+ * Appends are compare-and-set on the tip and snapshots are consistent, whatever the engine.
+ */
+public interface BlockRepository extends AutoCloseable {
+    Optional<Block.Id> getLastBlockId();
+
+    Optional<Block> findById(Block.Id id);
+
+    Optional<Long> getHeight();
+
+    Optional<Block.Id> findIdByHeight(long height);
+
+    /**
+     * The height of the block, empty when it is not part of the chain.
+     */
+    Optional<Long> findHeightById(Block.Id id);
+
+    /**
+     * The running totals from genesis through {@code height}.
+     */
+    Optional<Totals> getTotals(long height);
+
+    /**
+     * The lowest height whose block is still stored in full, zero unless {@link Prunable#prune} ran.
+     */
+    long getPrunedHeight();
+
+    /**
+     * The header kept for a block whose body was pruned; empty for blocks stored in full.
+     */
+    Optional<Block.Header> findPrunedHeader(Block.Id id);
+
+    /**
+     * An output created in a pruned block and not spent by one, see {@link View#unspent(byte[])}.
+     */
+    Optional<Output> findPrunedOutput(byte[] pubKeyHash, Transaction.Id txId, int index);
+
+    /**
+     * Appends the block if, and only if, the current tip is still its previous block.
+     * Returns false without writing anything when another writer moved the tip first.
+     */
+    default boolean append(Block block) {
+        return appendAll(List.of(block), Durability.Async);
+    }
+
+    /**
+     * Appends a run of linked blocks at once. Like {@link #append(Block)}, nothing is written
+     * unless the first block extends the current tip.
+     */
+    boolean appendAll(List<Block> blocks, Durability durability);
+
+    /**
+     * Makes everything appended so far durable.
+     */
+    void flush();
+
+    /**
+     * Reclaims the space of deleted data.
+     */
+    void compact();
+
+    /**
+     * Bytes the engine keeps on disk.
+     */
+    long diskSize();
+
+    /**
+     * Pins a consistent, read-only view of the chain. Readers never block the writer, and
+     * blocks appended after this call are not visible through the returned view.
+     */
+    View snapshot();
+
+    @Override
+    void close();
+
+    interface View extends AutoCloseable {
+        Optional<Block.Id> getLastBlockId();
+
+        Optional<Block> findById(Block.Id id);
+
+        Optional<Long> getHeight();
+
+        long getPrunedHeight();
+
+        /**
+         * Outputs to the pubKeyHash created in pruned blocks and not spent by a pruned block.
+         * Blocks still stored in full may spend them, so callers scanning those must filter these.
+         */
+        List<OutputReference> unspent(byte[] pubKeyHash);
+
+        /**
+         * Iterates heights {@code from} to {@code to}, both inclusive, descending when {@code from > to},
+         * leaving out heights below {@link #getPrunedHeight()}. Up to {@code prefetch} blocks may be
+         * read ahead of the one returned.
+         */
+        default Range range(long from, long to, int prefetch) {
+            return range(from, to, prefetch, x -> true);
+        }
+
+        /**
+         * Like {@link #range(long, long, int)}, but blocks whose id fails {@code include} are never read.
+         */
+        Range range(long from, long to, int prefetch, Predicate<Block.Id> include);
+
+        /**
+         * Whether the block may hold an output to, or an input signed by, a pubKeyHash, or spend an
+         * {@link RocksDbBlockRepository#outpoint}. False negatives are impossible; engines without
+         * filters always say yes.
+         */
+        default boolean mayContain(Block.Id id, byte[] item) {
+            return mayContainAny(id, List.of(item));
+        }
+
+        /**
+         * Whether the block may hold any of the items, see {@link #mayContain}.
+         */
+        boolean mayContainAny(Block.Id id, Collection<byte[]> items);
+
+        @Override
+        void close();
+    }
+
+    interface Range extends Iterator<Block>, AutoCloseable {
+        @Override
+        void close();
+    }
+}
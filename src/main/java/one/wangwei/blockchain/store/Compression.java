@@ -0,0 +1,42 @@
+package one.wangwei.blockchain.store;
+
+import org.rocksdb.CompressionOptions;
+import org.rocksdb.CompressionType;
+import org.rocksdb.Options;
+
+/**
+ * How stored blocks are compressed on disk. Every SST file records its own compression, so a database
+ * can be reopened with another setting; existing files keep theirs until {@link RocksDbBlockRepository#compact()}.
+ */
+public enum Compression {
+    None,
+    Lz4,
+    /**
+     * ZSTD with a dictionary trained per SST file, so public keys and pubKeyHashes repeated across
+     * blocks are compressed against each other instead of only within one block.
+     */
+    Zstd;
+
+    private static final int DICTIONARY_BYTES = 16 * 1024;
+    private static final int TRAINING_BYTES = 100 * DICTIONARY_BYTES;
+
+    Options apply(Options options) {
+        switch (this) {
+            case None -> options.setCompressionType(CompressionType.NO_COMPRESSION);
+            case Lz4 -> options.setCompressionType(CompressionType.LZ4_COMPRESSION);
+            case Zstd -> {
+                // the options copy these values, so they can be released right away
+                try (var dictionary = new CompressionOptions()
+                        .setMaxDictBytes(DICTIONARY_BYTES)
+                        .setZStdMaxTrainBytes(TRAINING_BYTES)
+                        .setEnabled(true)) {
+                    options.setCompressionType(CompressionType.ZSTD_COMPRESSION)
+                            .setBottommostCompressionType(CompressionType.ZSTD_COMPRESSION)
+                            .setCompressionOptions(dictionary)
+                            .setBottommostCompressionOptions(dictionary);
+                }
+            }
+        }
+        return options;
+    }
+}
@@ -0,0 +1,24 @@
+package one.wangwei.blockchain.store;
+
+import org.rocksdb.WriteOptions;
+
+public enum Durability {
+    /**
+     * The write-ahead log is synced to disk before the append returns.
+     */
+    Sync,
+    /**
+     * The write-ahead log is written but left to the OS to sync; survives a process crash, not a power loss.
+     */
+    Async,
+    /**
+     * No write-ahead log at all, for bulk loads that can be redone; data is durable once flushed.
+     */
+    NoWal;
+
+    WriteOptions writeOptions() {
+        return new WriteOptions()
+                .setSync(this == Sync)
+                .setDisableWAL(this == NoWal);
+    }
+}
@@ -0,0 +1,45 @@
+package one.wangwei.blockchain.store;
+
+import one.wangwei.blockchain.util.ObjectMapper;
+import org.rocksdb.RocksDBException;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * The storage engines a chain can be kept in, chosen with {@code -Dblockchain.storage}.
+ */
+public enum Engine {
+    /**
+     * An LSM tree with block filters, pruning and compression, in blockchain.db.
+     */
+    RocksDb {
+        @Override
+        BlockRepository create(ObjectMapper serializer, Path dir) throws RocksDBException {
+            return new RocksDbBlockRepository(serializer, dir.resolve("blockchain.db").toString());
+        }
+    },
+    /**
+     * Append-only memory-mapped segment files, in blockchain.blk.
+     */
+    Mapped {
+        @Override
+        BlockRepository create(ObjectMapper serializer, Path dir) throws IOException {
+            return new MappedBlockRepository(serializer, dir.resolve("blockchain.blk"));
+        }
+    };
+
+    public static Engine configured() {
+        return valueOf(System.getProperty("blockchain.storage", RocksDb.name()));
+    }
+
+    public BlockRepository open(ObjectMapper serializer, Path dir) {
+        try {
+            return create(serializer, dir);
+        } catch (RocksDBException | IOException e) {
+            throw new RuntimeException("Fail to open block repository ! engine=%s, dir=%s".formatted(this, dir), e);
+        }
+    }
+
+    abstract BlockRepository create(ObjectMapper serializer, Path dir) throws RocksDBException, IOException;
+}
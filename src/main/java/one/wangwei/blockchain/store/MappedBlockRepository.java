@@ -0,0 +1,377 @@
+package one.wangwei.blockchain.store;
+
+import one.wangwei.blockchain.block.Block;
+import one.wangwei.blockchain.transaction.Output;
+import one.wangwei.blockchain.transaction.OutputReference;
+import one.wangwei.blockchain.transaction.Transaction;
+import one.wangwei.blockchain.util.ObjectMapper;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Predicate;
+
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * Blocks appended to fixed size, memory-mapped segment files, blk00000.dat and on, the way Bitcoin keeps
+ * its blk files; nothing is ever rewritten. index.dat holds one fixed size record per height with the
+ * block id, where its bytes are, and the running totals. It is loaded on open, so a read is a map lookup
+ * and a slice of the mapped segment, decoded in place without copying.
+ * <p>
+ * Block data is written before its index record, and an index record is what makes a block exist, so a
+ * crash loses at most the blocks whose records were not written. One process at a time, the index is
+ * locked while open. There are no block filters, every block may match, and
+ * blocks cannot be pruned; the index is written with the segments, so there is nothing to reindex.
+ */
+public class MappedBlockRepository implements BlockRepository {
+    private static final int SEGMENT_SIZE = Integer.getInteger("blockchain.segmentSize", 128 * 1024 * 1024);
+    private static final int ID_SIZE = 32;
+    private static final int TOTALS_SIZE = Totals.Zero.toBytes().length;
+    private static final int ENTRY_SIZE = ID_SIZE + 3 * Integer.BYTES + TOTALS_SIZE;
+
+    private final ObjectMapper serializer;
+    private final Path dir;
+    private final int segmentSize;
+    private final FileChannel index;
+    private final FileLock lock;
+    private final List<MappedByteBuffer> segments = new CopyOnWriteArrayList<>();
+    private final Map<Block.Id, Integer> heights = new ConcurrentHashMap<>();
+    // entries below count never change; a writer fills the slots, then publishes the array, then the count
+    private volatile Entry[] entries;
+    private volatile int count;
+    private int position;
+
+    public MappedBlockRepository(ObjectMapper serializer, Path dir) throws IOException {
+        this(serializer, dir, SEGMENT_SIZE);
+    }
+
+    public MappedBlockRepository(ObjectMapper serializer, Path dir, int segmentSize) throws IOException {
+        this.serializer = serializer;
+        this.dir = Files.createDirectories(dir);
+        this.segmentSize = segmentSize;
+        this.index = FileChannel.open(dir.resolve("index.dat"), CREATE, READ, WRITE);
+        this.lock = index.tryLock();
+        if (lock == null) {
+            index.close();
+            throw new IllegalStateException("%s is used by another process".formatted(dir));
+        }
+        load();
+    }
+
+    private void load() throws IOException {
+        var records = (int) (index.size() / ENTRY_SIZE);
+        // a torn record from a crash in the middle of an append
+        index.truncate((long) records * ENTRY_SIZE);
+        var buffer = ByteBuffer.allocate(records * ENTRY_SIZE);
+        while (buffer.hasRemaining()) {
+            if (index.read(buffer, buffer.position()) < 0) throw new IOException("index.dat ended early");
+        }
+        buffer.flip();
+        entries = new Entry[Math.max(16, records)];
+        for (var height = 0; height < records; height++) {
+            var entry = Entry.read(buffer);
+            entries[height] = entry;
+            heights.put(entry.id(), height);
+        }
+        var last = records == 0 ? null : entries[records - 1];
+        var segmentCount = last == null ? 1 : last.segment() + 1;
+        for (var i = 0; i < segmentCount; i++) segments.add(map(i));
+        position = last == null ? 0 : last.offset() + last.length();
+        count = records;
+    }
+
+    private MappedByteBuffer map(int segment) throws IOException {
+        try (var channel = FileChannel.open(dir.resolve("blk%05d.dat".formatted(segment)), CREATE, READ, WRITE)) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        }
+    }
+
+    @Override
+    public Optional<Block.Id> getLastBlockId() {
+        return getLastBlockId(count);
+    }
+
+    @Override
+    public Optional<Block> findById(Block.Id id) {
+        return findById(count, id);
+    }
+
+    @Override
+    public Optional<Long> getHeight() {
+        return getHeight(count);
+    }
+
+    @Override
+    public Optional<Block.Id> findIdByHeight(long height) {
+        return entry(count, height).map(Entry::id);
+    }
+
+    @Override
+    public Optional<Long> findHeightById(Block.Id id) {
+        var height = heights.get(id);
+        return height == null || height >= count ? Optional.empty() : Optional.of(height.longValue());
+    }
+
+    @Override
+    public Optional<Totals> getTotals(long height) {
+        return entry(count, height).map(Entry::totals);
+    }
+
+    @Override
+    public long getPrunedHeight() {
+        return 0;
+    }
+
+    @Override
+    public Optional<Block.Header> findPrunedHeader(Block.Id id) {
+        return Optional.empty();
+    }
+
+    @Override
+    public Optional<Output> findPrunedOutput(byte[] pubKeyHash, Transaction.Id txId, int index) {
+        return Optional.empty();
+    }
+
+    /**
+     * Writes the blocks into the current segment, rolling over to a new one when it is full, then their
+     * index records. With {@link Durability#Sync} the segment is forced before the index is written and
+     * the index after; otherwise both are left to the OS, which survives a process crash, not a power loss.
+     */
+    @Override
+    public synchronized boolean appendAll(List<Block> blocks, Durability durability) {
+        if (blocks.isEmpty()) return true;
+        for (var i = 1; i < blocks.size(); i++) {
+            if (!blocks.get(i).previousId().equals(blocks.get(i - 1).id()))
+                throw new IllegalArgumentException("block %s does not follow %s".formatted(blocks.get(i).id(), blocks.get(i - 1).id()));
+        }
+        var height = count;
+        var tip = height == 0 ? Block.Id.Null : entries[height - 1].id();
+        if (!blocks.get(0).previousId().equals(tip)) return false;
+        var totals = height == 0 ? Totals.Zero : entries[height - 1].totals();
+        var added = new ArrayList<Entry>(blocks.size());
+        var touched = new TreeSet<Integer>();
+        try {
+            for (var block : blocks) {
+                if (block.id().value().length != ID_SIZE) throw new IllegalArgumentException("block id must be %s bytes".formatted(ID_SIZE));
+                var bytes = serializer.serialize(block);
+                if (bytes.length > segmentSize) throw new IllegalArgumentException("block %s is larger than a segment".formatted(block.id()));
+                if (position + bytes.length > segmentSize) {
+                    segments.add(map(segments.size()));
+                    position = 0;
+                }
+                var segment = segments.size() - 1;
+                segments.get(segment).put(position, bytes);
+                touched.add(segment);
+                totals = totals.next(block, bytes.length);
+                added.add(new Entry(block.id(), segment, position, bytes.length, totals));
+                position += bytes.length;
+            }
+            if (durability == Durability.Sync) touched.forEach(x -> segments.get(x).force());
+            var records = ByteBuffer.allocate(added.size() * ENTRY_SIZE);
+            added.forEach(x -> x.write(records));
+            records.flip();
+            var offset = (long) height * ENTRY_SIZE;
+            while (records.hasRemaining()) offset += index.write(records, offset);
+            if (durability == Durability.Sync) index.force(false);
+        } catch (IOException e) {
+            throw new RuntimeException("Fail to put blocks ! from=%s, to=%s".formatted(blocks.get(0).id(), blocks.get(blocks.size() - 1).id()), e);
+        }
+        var array = entries;
+        if (height + added.size() > array.length) array = Arrays.copyOf(array, Math.max(array.length * 2, height + added.size()));
+        for (var i = 0; i < added.size(); i++) array[height + i] = added.get(i);
+        entries = array;
+        count = height + added.size();
+        for (var i = 0; i < added.size(); i++) heights.put(added.get(i).id(), height + i);
+        return true;
+    }
+
+    @Override
+    public synchronized void flush() {
+        try {
+            segments.get(segments.size() - 1).force();
+            index.force(false);
+        } catch (IOException e) {
+            throw new RuntimeException("Fail to flush !", e);
+        }
+    }
+
+    /**
+     * Nothing is ever deleted, so there is nothing to reclaim.
+     */
+    @Override
+    public void compact() {
+    }
+
+    /**
+     * Bytes of blocks and index records written; segment files are allocated sparsely up to their full size.
+     */
+    @Override
+    public long diskSize() {
+        var count = this.count;
+        return count == 0 ? 0 : entries[count - 1].totals().bytes() + (long) count * ENTRY_SIZE;
+    }
+
+    @Override
+    public View snapshot() {
+        return new View(count);
+    }
+
+    @Override
+    public synchronized void close() {
+        try {
+            flush();
+            lock.release();
+            index.close();
+        } catch (IOException e) {
+            throw new RuntimeException("Fail to close block repository !", e);
+        } finally {
+            // mappings are released when collected
+            segments.clear();
+        }
+    }
+
+    private Optional<Block.Id> getLastBlockId(int count) {
+        return count == 0 ? Optional.empty() : Optional.of(entries[count - 1].id());
+    }
+
+    private Optional<Long> getHeight(int count) {
+        return count == 0 ? Optional.empty() : Optional.of(count - 1L);
+    }
+
+    private Optional<Entry> entry(int count, long height) {
+        return height < 0 || height >= count ? Optional.empty() : Optional.of(entries[(int) height]);
+    }
+
+    private Optional<Block> findById(int count, Block.Id id) {
+        var height = heights.get(id);
+        return height == null || height >= count ? Optional.empty() : Optional.of(read(entries[height]));
+    }
+
+    private Block read(Entry entry) {
+        return serializer.deserialize(segments.get(entry.segment()).slice(entry.offset(), entry.length()), Block.class);
+    }
+
+    private record Entry(Block.Id id, int segment, int offset, int length, Totals totals) {
+        private static Entry read(ByteBuffer buffer) {
+            var id = new byte[ID_SIZE];
+            buffer.get(id);
+            var segment = buffer.getInt();
+            var offset = buffer.getInt();
+            var length = buffer.getInt();
+            var totals = new byte[TOTALS_SIZE];
+            buffer.get(totals);
+            return new Entry(new Block.Id(id), segment, offset, length, Totals.fromBytes(totals));
+        }
+
+        private void write(ByteBuffer buffer) {
+            buffer.put(id.value()).putInt(segment).putInt(offset).putInt(length).put(totals.toBytes());
+        }
+    }
+
+    /**
+     * Blocks are immutable once indexed, so a view is nothing more than the height count it was taken at.
+     */
+    public class View implements BlockRepository.View {
+        private final int count;
+
+        private View(int count) {
+            this.count = count;
+        }
+
+        @Override
+        public Optional<Block.Id> getLastBlockId() {
+            return MappedBlockRepository.this.getLastBlockId(count);
+        }
+
+        @Override
+        public Optional<Block> findById(Block.Id id) {
+            return MappedBlockRepository.this.findById(count, id);
+        }
+
+        @Override
+        public Optional<Long> getHeight() {
+            return MappedBlockRepository.this.getHeight(count);
+        }
+
+        @Override
+        public long getPrunedHeight() {
+            return 0;
+        }
+
+        @Override
+        public List<OutputReference> unspent(byte[] pubKeyHash) {
+            return List.of();
+        }
+
+        /**
+         * Reads are slices of mapped memory, so nothing is read ahead; {@code prefetch} is only checked.
+         */
+        @Override
+        public Range range(long from, long to, int prefetch, Predicate<Block.Id> include) {
+            if (prefetch < 1) throw new IllegalArgumentException("prefetch must be greater than 0");
+            return new Range(count, from, to, include);
+        }
+
+        @Override
+        public boolean mayContainAny(Block.Id id, Collection<byte[]> items) {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    public class Range implements BlockRepository.Range {
+        private final long to;
+        private final int step;
+        private final Predicate<Block.Id> include;
+        private long height;
+        private Entry next;
+
+        private Range(int count, long from, long to, Predicate<Block.Id> include) {
+            this.step = from <= to ? 1 : -1;
+            this.height = step > 0 ? Math.max(from, 0) : Math.min(from, count - 1L);
+            this.to = step > 0 ? Math.min(to, count - 1L) : Math.max(to, 0);
+            this.include = include;
+            advance();
+        }
+
+        private void advance() {
+            next = null;
+            for (; step > 0 ? height <= to : height >= to; height += step) {
+                var entry = entries[(int) height];
+                if (include.test(entry.id())) {
+                    next = entry;
+                    height += step;
+                    return;
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public Block next() {
+            if (next == null) throw new NoSuchElementException();
+            var block = read(next);
+            advance();
+            return block;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
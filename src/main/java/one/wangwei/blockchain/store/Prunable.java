@@ -0,0 +1,11 @@
+package one.wangwei.blockchain.store;
+
+/**
+ * A repository that can drop the bodies of old blocks, keeping their headers and unspent outputs.
+ */
+public interface Prunable {
+    /**
+     * Drops the bodies of all but the last {@code keep} blocks and returns how many were dropped.
+     */
+    long prune(long keep);
+}
@@ -0,0 +1,17 @@
+package one.wangwei.blockchain.store;
+
+import java.util.function.LongConsumer;
+
+/**
+ * A repository whose heights, running totals and filters are derived data that can be rebuilt.
+ */
+public interface Reindexable {
+    /**
+     * Rebuilds the data derived from the stored blocks, heights, running totals and filters. Blocks are read
+     * by {@code threads} workers and {@code progress} is told how many have been read so far. Returns the
+     * blocks read. A run that was interrupted resumes where it stopped. If blocks are appended or pruned
+     * while heights are written, it fails rather than drop them; running it again finishes the job, blocks
+     * appended since included.
+     */
+    long reindex(int threads, LongConsumer progress);
+}
@@ -1,86 +1,866 @@
 package one.wangwei.blockchain.store;
 
 import one.wangwei.blockchain.block.Block;
+import one.wangwei.blockchain.transaction.Output;
+import one.wangwei.blockchain.transaction.OutputReference;
+import one.wangwei.blockchain.transaction.Transaction;
+import one.wangwei.blockchain.util.GolombFilter;
+import one.wangwei.blockchain.util.Numbers;
 import one.wangwei.blockchain.util.ObjectMapper;
 import org.rocksdb.*;
 
-import java.util.Optional;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongConsumer;
+import java.util.function.Predicate;
 
 import static java.lang.System.arraycopy;
 import static java.util.Optional.ofNullable;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static java.util.function.Predicate.not;
 
 
-public class RocksDbBlockRepository implements AutoCloseable {
+public class RocksDbBlockRepository implements BlockRepository, Prunable, Reindexable {
     private static final String DB_FILE = "blockchain.db";
+    private static final byte[] LAST_KEY = {'l'};
+    private static final byte[] HEIGHT_KEY = {'n'};
+    private static final byte[] PRUNED_KEY = {'p'};
+    private static final byte[] REINDEX_KEY = {'r'};
+    private static final int REINDEX_BATCH = 1000;
+    private static final int PRUNE_BATCH = 1000;
+    private static final long READAHEAD_SIZE = 2 * 1024 * 1024;
+    private static final int MAX_RETAINED_VALUE_SIZE = 1024 * 1024;
+
+    static {
+        RocksDB.loadLibrary();
+    }
 
     private final TransactionDB db;
     private final ObjectMapper serializer;
-    private final Options options = new Options().setCreateIfMissing(true);
+    private final Options options;
+    private final ReadOptions readOptions = new ReadOptions();
+    private final ThreadLocal<DirectBuffers> directBuffers = ThreadLocal.withInitial(DirectBuffers::new);
+    private final ExecutorService prefetcher = Executors.newCachedThreadPool(r -> {
+        var thread = new Thread(r, "block-prefetch");
+        thread.setDaemon(true);
+        return thread;
+    });
 
     public RocksDbBlockRepository(ObjectMapper serializer) throws RocksDBException {
+        this(serializer, DB_FILE);
+    }
+
+    public RocksDbBlockRepository(ObjectMapper serializer, String path) throws RocksDBException {
+        this(serializer, path, Compression.Zstd);
+    }
+
+    public RocksDbBlockRepository(ObjectMapper serializer, String path, Compression compression) throws RocksDBException {
         this.serializer = serializer;
+        this.options = compression.apply(new Options().setCreateIfMissing(true));
         this.db = TransactionDB.open(
                 options,
                 new TransactionDBOptions(),
-                DB_FILE
+                path
         );
+        indexHeights();
+        indexTotals();
+        indexIds();
+    }
+
+    /**
+     * Chains written before the height index existed get it built once, by walking back from the tip.
+     */
+    private void indexHeights() throws RocksDBException {
+        if (db.get(HEIGHT_KEY) != null) return;
+        var ids = new ArrayDeque<Block.Id>();
+        for (var id = getLastBlockId(); id.isPresent(); id = findById(id.get()).map(Block::previousId).filter(not(Block.Id.Null::equals))) {
+            ids.addFirst(id.get());
+        }
+        if (ids.isEmpty()) return;
+        try (var batch = new WriteBatch(); var writeOptions = new WriteOptions()) {
+            var height = 0L;
+            for (var id : ids) {
+                batch.put(idKey(id), Numbers.toBytes(height));
+                batch.put(heightKey(height++), id.value());
+            }
+            batch.put(HEIGHT_KEY, Numbers.toBytes(height - 1));
+            db.write(writeOptions, batch);
+        }
+    }
+
+    /**
+     * Fills in the running totals missing below the tip, all of them for chains written before totals
+     * existed, or the heights a writer without them appended.
+     */
+    private void indexTotals() throws RocksDBException {
+        var top = getHeight();
+        if (top.isEmpty()) return;
+        var from = top.get();
+        while (from >= 0 && db.get(totalsKey(from)) == null) from--;
+        if (from == top.get()) return;
+        var totals = from < 0 ? Totals.Zero : getTotals(from).orElseThrow();
+        try (var view = snapshot(); var blocks = view.range(from + 1, top.get(), 16);
+             var batch = new WriteBatch(); var writeOptions = new WriteOptions()) {
+            for (var height = from + 1; blocks.hasNext(); height++) {
+                var block = blocks.next();
+                totals = totals.next(block, serializer.serialize(block).length);
+                batch.put(totalsKey(height), totals.toBytes());
+            }
+            db.write(writeOptions, batch);
+        }
+    }
+
+    /**
+     * Fills in the heights by id missing below the tip, for chains written before they were kept.
+     */
+    private void indexIds() throws RocksDBException {
+        var top = getHeight();
+        if (top.isEmpty()) return;
+        try (var batch = new WriteBatch(); var writeOptions = new WriteOptions()) {
+            for (var height = top.get(); height >= 0; height--) {
+                var id = findIdByHeight(height).orElseThrow();
+                if (db.get(idKey(id)) != null) break;
+                batch.put(idKey(id), Numbers.toBytes(height));
+            }
+            db.write(writeOptions, batch);
+        }
     }
 
+    @Override
     public Optional<Block.Id> getLastBlockId() {
+        return getLastBlockId(readOptions);
+    }
+
+    @Override
+    public Optional<Block> findById(Block.Id id) {
+        return findById(readOptions, id);
+    }
+
+    @Override
+    public Optional<Long> getHeight() {
+        return getHeight(readOptions);
+    }
+
+    /**
+     * The running totals from genesis through {@code height}, one point read.
+     */
+    @Override
+    public Optional<Totals> getTotals(long height) {
         try {
-            return withTransaction(tx -> ofNullable(tx.get(new ReadOptions(), new byte[]{'l'})).map(Block.Id::new));
+            return ofNullable(db.get(readOptions, totalsKey(height))).map(Totals::fromBytes);
         } catch (RocksDBException e) {
-            throw new RuntimeException("Fail to get last block id !", e);
+            throw new RuntimeException("Fail to get totals ! height=%s".formatted(height), e);
         }
     }
 
-    public void append(Block block) {
-        var x = block.id().value();
-        var key = new byte[x.length + 1];
-        key[0] = 'b';
-        arraycopy(x, 0, key, 1, x.length);
+    /**
+     * The lowest height whose block is still stored in full, zero unless {@link #prune} ran.
+     */
+    @Override
+    public long getPrunedHeight() {
+        return getPrunedHeight(readOptions);
+    }
+
+    /**
+     * The header kept for a block whose body was pruned; empty for blocks stored in full.
+     */
+    @Override
+    public Optional<Block.Header> findPrunedHeader(Block.Id id) {
+        try {
+            return ofNullable(db.get(readOptions, headerKey(id))).map(data -> serializer.deserialize(data, Block.Header.class));
+        } catch (RocksDBException e) {
+            throw new RuntimeException("Fail to get block header ! block=%s".formatted(id), e);
+        }
+    }
+
+    /**
+     * An output created in a pruned block and not spent by one, see {@link View#unspent(byte[])}.
+     */
+    @Override
+    public Optional<Output> findPrunedOutput(byte[] pubKeyHash, Transaction.Id txId, int index) {
+        try {
+            return ofNullable(db.get(readOptions, unspentKey(pubKeyHash, txId, index)))
+                    .map(value -> new Output(Numbers.toInt(value, 0), pubKeyHash));
+        } catch (RocksDBException e) {
+            throw new RuntimeException("Fail to get output ! tx=%s, index=%s".formatted(txId, index), e);
+        }
+    }
+
+    @Override
+    public Optional<Block.Id> findIdByHeight(long height) {
         try {
-            withTransaction(tx -> {
-                tx.put(key, serializer.serialize(block));
-                tx.put(new byte[]{'l'}, x);
+            return ofNullable(db.get(readOptions, heightKey(height))).map(Block.Id::new);
+        } catch (RocksDBException e) {
+            throw new RuntimeException("Fail to get block id ! height=%s".formatted(height), e);
+        }
+    }
+
+    /**
+     * Two point reads: the height kept by id, then the height index, so that an id whose height
+     * {@link #reindex} moved or dropped is not taken at its word.
+     */
+    @Override
+    public Optional<Long> findHeightById(Block.Id id) {
+        try {
+            return ofNullable(db.get(readOptions, idKey(id))).map(x -> Numbers.toLong(x, 0))
+                    .filter(height -> findIdByHeight(height).filter(id::equals).isPresent());
+        } catch (RocksDBException e) {
+            throw new RuntimeException("Fail to get block height ! block=%s".formatted(id), e);
+        }
+    }
+
+    /**
+     * Appends the block if, and only if, the current tip is still its previous block.
+     * Returns false without writing anything when another writer moved the tip first.
+     */
+    @Override
+    public boolean append(Block block) {
+        return appendAll(List.of(block), Durability.Async);
+    }
+
+    /**
+     * Appends a run of linked blocks, their height entries and the new tip in one write batch,
+     * so the whole run pays for a single commit and WAL write. Like {@link #append(Block)}, nothing
+     * is written unless the first block extends the current tip. The running totals of each height
+     * are derived from those of the previous one, so keeping them costs a read and a put per block.
+     */
+    @Override
+    public boolean appendAll(List<Block> blocks, Durability durability) {
+        if (blocks.isEmpty()) return true;
+        for (var i = 1; i < blocks.size(); i++) {
+            if (!blocks.get(i).previousId().equals(blocks.get(i - 1).id()))
+                throw new IllegalArgumentException("block %s does not follow %s".formatted(blocks.get(i).id(), blocks.get(i - 1).id()));
+        }
+        var first = blocks.get(0);
+        var last = blocks.get(blocks.size() - 1);
+        var expected = first.previousId().equals(Block.Id.Null) ? null : first.previousId().value();
+        var values = blocks.stream().map(serializer::serialize).toList();
+        var filters = blocks.stream().map(x -> filter(x).toBytes()).toList();
+        try (var writeOptions = durability.writeOptions()) {
+            return withTransaction(writeOptions, tx -> {
+                if (!Arrays.equals(tx.getForUpdate(readOptions, LAST_KEY, true), expected)) return false;
+                var tip = tx.getForUpdate(readOptions, HEIGHT_KEY, true);
+                var height = expected == null || tip == null ? 0 : Numbers.toLong(tip, 0) + 1;
+                // missing when a writer without totals appended the previous block; filled in on the next open
+                var previous = height == 0 ? Totals.Zero.toBytes() : tx.get(readOptions, totalsKey(height - 1));
+                var totals = previous == null ? null : Totals.fromBytes(previous);
+                // only the tip is contended, the new keys cannot be seen before the tip moves
+                for (var i = 0; i < blocks.size(); i++) {
+                    tx.putUntracked(blockKey(blocks.get(i).id()), values.get(i));
+                    tx.putUntracked(filterKey(blocks.get(i).id()), filters.get(i));
+                    tx.putUntracked(heightKey(height + i), blocks.get(i).id().value());
+                    tx.putUntracked(idKey(blocks.get(i).id()), Numbers.toBytes(height + i));
+                    if (totals != null) {
+                        totals = totals.next(blocks.get(i), values.get(i).length);
+                        tx.putUntracked(totalsKey(height + i), totals.toBytes());
+                    }
+                }
+                tx.put(HEIGHT_KEY, Numbers.toBytes(height + blocks.size() - 1));
+                tx.put(LAST_KEY, last.id().value());
                 return true;
             });
         } catch (RocksDBException e) {
-            throw new RuntimeException("Fail to put block ! block=%s".formatted(block), e);
+            throw new RuntimeException("Fail to put blocks ! from=%s, to=%s".formatted(first.id(), last.id()), e);
         }
     }
 
-    public Optional<Block> findById(Block.Id id) {
-        var raw = id.value();
-        var key = new byte[raw.length + 1];
-        key[0] = 'b';
-        arraycopy(raw, 0, key, 1, raw.length);
+    /**
+     * Replaces the bodies of all but the last {@code keep} blocks with their headers, after moving their
+     * outputs that no pruned block spends into an index by pubKeyHash. Heights, totals and headers stay,
+     * blocks above the cut keep being read in full. Blocks are pruned {@value #PRUNE_BATCH} to a transaction,
+     * each moving the pruned height up, so an interrupted prune leaves a shorter cut. Returns how many blocks
+     * were pruned by this call; the space is reclaimed as compaction drops the deleted bodies, see {@link #compact()}.
+     */
+    @Override
+    public long prune(long keep) {
+        if (keep < 1) throw new IllegalArgumentException("keep must be greater than 0");
+        var top = getHeight();
+        var from = getPrunedHeight();
+        var to = top.map(x -> x - keep + 1).orElse(0L);
+        if (to <= from) return 0;
+        try (var view = snapshot(); var blocks = view.range(from, to - 1, 16); var writeOptions = new WriteOptions()) {
+            var height = from;
+            while (height < to) {
+                var start = height;
+                var end = Math.min(to, start + PRUNE_BATCH);
+                var pruned = withTransaction(writeOptions, tx -> {
+                    // another pruner got here first
+                    if (!Arrays.equals(tx.getForUpdate(readOptions, PRUNED_KEY, true), start == 0 ? null : Numbers.toBytes(start))) return false;
+                    for (var i = start; i < end; i++) prune(tx, blocks.next());
+                    tx.put(PRUNED_KEY, Numbers.toBytes(end));
+                    return true;
+                });
+                if (!pruned) break;
+                height = end;
+            }
+            return height - from;
+        } catch (RocksDBException e) {
+            throw new RuntimeException("Fail to prune blocks ! from=%s, to=%s".formatted(from, to), e);
+        }
+    }
+
+    private void prune(org.rocksdb.Transaction tx, Block block) throws RocksDBException {
+        for (var transaction : block.transactions()) {
+            if (!transaction.isCoinbase()) {
+                for (var input : transaction.inputs()) {
+                    // an undecodable key spends nothing, so there is nothing to delete
+                    var pubKeyHash = input.getScheme().pubKeyHash(input.getPubKey());
+                    if (pubKeyHash.isPresent()) {
+                        tx.deleteUntracked(unspentKey(pubKeyHash.get(), input.getTxId(), input.getOutputIndex()));
+                    }
+                }
+            }
+            var outputs = transaction.outputs();
+            for (var i = 0; i < outputs.length; i++) {
+                tx.putUntracked(unspentKey(outputs[i].pubKeyHash(), transaction.id(), i), Numbers.toBytes(outputs[i].value()));
+            }
+        }
+        tx.putUntracked(headerKey(block.id()), serializer.serialize(block.header()));
+        tx.deleteUntracked(blockKey(block.id()));
+        tx.deleteUntracked(filterKey(block.id()));
+    }
+
+    /**
+     * Rebuilds filters, heights and running totals in two phases. First the block keys are split into ranges
+     * by the first byte of the id, which is uniform, and the workers take a range at a time, writing filters
+     * in batches of {@value #REINDEX_BATCH} blocks along with a cursor for the range. With the filter of each
+     * block go its previous id and its own totals, under a scratch key. Then the chain is walked back from the
+     * tip over the scratch keys, reading only blocks appended after their range was, and heights and totals are
+     * written in height order. An interrupted
+     * run resumes from the cursors, and with the partitioning under {@code 'r'}; the second phase is redone.
+     * Heights and totals below the pruned height are kept as they are, their blocks being gone. The last
+     * write, which sets the tip height, is checked against the tip and pruned height the walk started from;
+     * if an append or a prune moved either, it fails, and a next run walks from the new tip and finishes the job.
+     * {@code progress} is called from the workers.
+     */
+    @Override
+    public long reindex(int threads, LongConsumer progress) {
+        if (threads < 1) throw new IllegalArgumentException("threads must be greater than 0");
+        var pool = Executors.newFixedThreadPool(threads, r -> {
+            var thread = new Thread(r, "reindex");
+            thread.setDaemon(true);
+            return thread;
+        });
         try {
-            return withTransaction(tx -> ofNullable(tx.get(new ReadOptions(), key)).map(data -> serializer.deserialize(data, Block.class)));
+            var stored = db.get(REINDEX_KEY);
+            var partitions = stored != null ? Numbers.toInt(stored, 0) : Math.min(256, threads * 4);
+            if (stored == null) db.put(REINDEX_KEY, Numbers.toBytes(partitions));
+            var read = new AtomicLong();
+            var futures = new ArrayList<Future<Void>>();
+            for (var i = 0; i < partitions; i++) {
+                var partition = i;
+                futures.add(pool.submit(() -> {
+                    reindexPartition(partition, partitions, read, progress);
+                    return null;
+                }));
+            }
+            for (var future : futures) future.get();
+            relinkHeights();
+            return read.get();
+        } catch (RocksDBException e) {
+            throw new RuntimeException("Fail to reindex !", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while reindexing !", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Fail to reindex !", e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private void reindexPartition(int partition, int partitions, AtomicLong read, LongConsumer progress) throws RocksDBException {
+        var cursor = db.get(cursorKey(partition));
+        // done before the interruption
+        if (cursor != null && cursor.length == 0) return;
+        var start = new byte[]{'b', (byte) (partition * 256 / partitions)};
+        var end = partition == partitions - 1 ? new byte[]{'b' + 1} : new byte[]{'b', (byte) ((partition + 1) * 256 / partitions)};
+        try (var iterator = db.newIterator(readOptions); var batch = new WriteBatch(); var writeOptions = new WriteOptions()) {
+            iterator.seek(cursor != null ? cursor : start);
+            // the cursor is the last block written
+            if (cursor != null && iterator.isValid() && Arrays.equals(iterator.key(), cursor)) iterator.next();
+            var pending = 0;
+            for (; iterator.isValid(); iterator.next()) {
+                var key = iterator.key();
+                if (Arrays.compareUnsigned(key, end) >= 0) break;
+                var value = iterator.value();
+                var block = serializer.deserialize(value, Block.class);
+                batch.put(filterKey(block.id()), filter(block).toBytes());
+                batch.put(linkKey(block.id()), link(block, value.length));
+                if (++pending == REINDEX_BATCH) {
+                    batch.put(cursorKey(partition), key);
+                    db.write(writeOptions, batch);
+                    batch.clear();
+                    progress.accept(read.addAndGet(pending));
+                    pending = 0;
+                }
+            }
+            batch.put(cursorKey(partition), new byte[0]);
+            db.write(writeOptions, batch);
+            progress.accept(read.addAndGet(pending));
+        }
+    }
+
+    private void relinkHeights() throws RocksDBException {
+        var links = new HashMap<Block.Id, byte[]>();
+        try (var iterator = db.newIterator(readOptions)) {
+            for (iterator.seek(new byte[]{'x'}); iterator.isValid() && iterator.key()[0] == 'x'; iterator.next()) {
+                var key = iterator.key();
+                links.put(new Block.Id(Arrays.copyOfRange(key, 1, key.length)), iterator.value());
+            }
+        }
+        var last = db.get(readOptions, LAST_KEY);
+        var cut = db.get(readOptions, PRUNED_KEY);
+        var pruned = cut == null ? 0 : Numbers.toLong(cut, 0);
+        // scratch keys of blocks pruned since their range was read are passed over, the walk stops above the cut
+        var stop = pruned == 0 ? Block.Id.Null : findIdByHeight(pruned - 1).orElseThrow();
+        var chain = new ArrayDeque<Block.Id>();
+        for (var id = last == null ? stop : new Block.Id(last); !id.equals(stop); ) {
+            var link = links.get(id);
+            // appended after its range was read, by this run or by one that did not finish
+            if (link == null) links.put(id, link = link(id));
+            chain.addFirst(id);
+            id = new Block.Id(Arrays.copyOfRange(link, Totals.SIZE, link.length));
+        }
+        var totals = pruned == 0 ? Totals.Zero : getTotals(pruned - 1).orElseThrow();
+        var height = pruned;
+        try (var batch = new WriteBatch(); var writeOptions = new WriteOptions()) {
+            // heights up to the tip walked, which appends and prunes leave alone
+            for (var id : chain) {
+                totals = totals.plus(Totals.fromBytes(links.get(id)));
+                batch.put(heightKey(height), id.value());
+                batch.put(idKey(id), Numbers.toBytes(height));
+                batch.put(totalsKey(height), totals.toBytes());
+                if (++height % REINDEX_BATCH == 0) {
+                    db.write(writeOptions, batch);
+                    batch.clear();
+                }
+            }
+            db.write(writeOptions, batch);
+            var top = height;
+            var linked = withTransaction(writeOptions, tx -> {
+                // moving the tip back would drop blocks appended since the walk, so give up if any were
+                if (!Arrays.equals(tx.getForUpdate(readOptions, LAST_KEY, true), last)) return false;
+                if (!Arrays.equals(tx.getForUpdate(readOptions, PRUNED_KEY, true), cut)) return false;
+                if (top > 0) tx.put(HEIGHT_KEY, Numbers.toBytes(top - 1));
+                // left above the tip by whatever made the index wrong
+                deleteFrom(tx, heightKey(top));
+                deleteFrom(tx, totalsKey(top));
+                deleteFrom(tx, new byte[]{'x'});
+                deleteFrom(tx, REINDEX_KEY);
+                return true;
+            });
+            if (!linked) throw new IllegalStateException("the chain changed while reindexing, run reindex again to finish");
+        }
+    }
+
+    private byte[] link(Block.Id id) throws RocksDBException {
+        var value = db.get(readOptions, blockKey(id));
+        if (value == null) throw new IllegalStateException("block %s is not stored, the chain cannot be linked".formatted(id));
+        return link(serializer.deserialize(value, Block.class), value.length);
+    }
+
+    /**
+     * The scratch value of a block: its own totals, then its previous id.
+     */
+    private static byte[] link(Block block, int size) {
+        var previousId = block.previousId().value();
+        return ByteBuffer.allocate(Totals.SIZE + previousId.length)
+                .put(Totals.Zero.next(block, size).toBytes())
+                .put(previousId)
+                .array();
+    }
+
+    /**
+     * Deletes, within the transaction, every key from {@code from} on that shares its first byte.
+     */
+    private void deleteFrom(org.rocksdb.Transaction tx, byte[] from) throws RocksDBException {
+        try (var iterator = db.newIterator(readOptions)) {
+            for (iterator.seek(from); iterator.isValid() && iterator.key()[0] == from[0]; iterator.next()) {
+                tx.deleteUntracked(iterator.key());
+            }
+        }
+    }
+
+    /**
+     * Persists memtables, which is what makes {@link Durability#NoWal} appends durable.
+     */
+    @Override
+    public void flush() {
+        try (var flushOptions = new FlushOptions().setWaitForFlush(true)) {
+            db.flush(flushOptions);
+        } catch (RocksDBException e) {
+            throw new RuntimeException("Fail to flush !", e);
+        }
+    }
+
+    /**
+     * Rewrites every SST file with the compression this repository was opened with,
+     * which is how a chain written uncompressed, or with another setting, is migrated.
+     */
+    @Override
+    public void compact() {
+        flush();
+        try (var compactOptions = new CompactRangeOptions()
+                .setBottommostLevelCompaction(CompactRangeOptions.BottommostLevelCompaction.kForce)) {
+            db.compactRange(db.getDefaultColumnFamily(), null, null, compactOptions);
+        } catch (RocksDBException e) {
+            throw new RuntimeException("Fail to compact !", e);
+        }
+    }
+
+    /**
+     * Bytes held by SST files, memtables not included.
+     */
+    @Override
+    public long diskSize() {
+        try {
+            return db.getLongProperty("rocksdb.total-sst-files-size");
+        } catch (RocksDBException e) {
+            throw new RuntimeException("Fail to get disk size !", e);
+        }
+    }
+
+    /**
+     * Pins a consistent, read-only view of the chain. Readers never block the writer, and
+     * blocks appended after this call are not visible through the returned view.
+     */
+    @Override
+    public View snapshot() {
+        return new View(db.getSnapshot());
+    }
+
+    private Optional<Block.Id> getLastBlockId(ReadOptions readOptions) {
+        try {
+            return ofNullable(db.get(readOptions, LAST_KEY)).map(Block.Id::new);
+        } catch (RocksDBException e) {
+            throw new RuntimeException("Fail to get last block id !", e);
+        }
+    }
+
+    private Optional<Long> getHeight(ReadOptions readOptions) {
+        try {
+            return ofNullable(db.get(readOptions, HEIGHT_KEY)).map(x -> Numbers.toLong(x, 0));
+        } catch (RocksDBException e) {
+            throw new RuntimeException("Fail to get chain height !", e);
+        }
+    }
+
+    private long getPrunedHeight(ReadOptions readOptions) {
+        try {
+            return ofNullable(db.get(readOptions, PRUNED_KEY)).map(x -> Numbers.toLong(x, 0)).orElse(0L);
+        } catch (RocksDBException e) {
+            throw new RuntimeException("Fail to get pruned height !", e);
+        }
+    }
+
+    private List<OutputReference> unspent(ReadOptions readOptions, byte[] pubKeyHash) {
+        var prefix = ByteBuffer.allocate(1 + pubKeyHash.length).put((byte) 'u').put(pubKeyHash).array();
+        var result = new ArrayList<OutputReference>();
+        try (var iterator = db.newIterator(readOptions)) {
+            for (iterator.seek(prefix); iterator.isValid(); iterator.next()) {
+                var key = iterator.key();
+                if (key.length < prefix.length || !Arrays.equals(key, 0, prefix.length, prefix, 0, prefix.length)) break;
+                var txId = new Transaction.Id(Arrays.copyOfRange(key, prefix.length, key.length - Integer.BYTES));
+                var index = Numbers.toInt(key, key.length - Integer.BYTES);
+                result.add(new OutputReference(txId, index, new Output(Numbers.toInt(iterator.value(), 0), pubKeyHash)));
+            }
+        }
+        return result;
+    }
+
+    private Optional<Block> findById(ReadOptions readOptions, Block.Id id) {
+        try {
+            var buffers = directBuffers.get();
+            var key = buffers.key.clear().put((byte) 'b').put(id.value()).flip();
+            while (true) {
+                var value = buffers.value.clear();
+                var size = db.get(readOptions, key, value);
+                if (size == RocksDB.NOT_FOUND) return Optional.empty();
+                if (size <= value.capacity()) return Optional.of(serializer.deserialize(value, Block.class));
+                // a rare large block is read once on the heap rather than pinning a buffer that size per thread
+                if (size > MAX_RETAINED_VALUE_SIZE) {
+                    return ofNullable(db.get(readOptions, blockKey(id))).map(x -> serializer.deserialize(x, Block.class));
+                }
+                // too small, RocksDB reported the full size, so one retry is enough
+                buffers.grow(size);
+                key.rewind();
+            }
         } catch (RocksDBException e) {
             throw new RuntimeException("Fail to get block ! block=%s".formatted(id), e);
         }
     }
 
+    private boolean mayContainAny(ReadOptions readOptions, Block.Id id, Collection<byte[]> items) {
+        try {
+            var filter = db.get(readOptions, filterKey(id));
+            return filter == null || GolombFilter.fromBytes(filter).mayContainAny(id.value(), items);
+        } catch (RocksDBException e) {
+            throw new RuntimeException("Fail to get block filter ! block=%s".formatted(id), e);
+        }
+    }
+
+    /**
+     * The filter item for a spent output, see {@link View#mayContain}.
+     */
+    public static byte[] outpoint(byte[] txId, int index) {
+        return ByteBuffer.allocate(txId.length + Integer.BYTES).put(txId).putInt(index).array();
+    }
+
+    private static GolombFilter filter(Block block) {
+        var items = new ArrayList<byte[]>();
+        for (var tx : block.transactions()) {
+            for (var output : tx.outputs()) items.add(output.pubKeyHash());
+            if (tx.isCoinbase()) continue;
+            for (var input : tx.inputs()) {
+                input.getScheme().pubKeyHash(input.getPubKey()).ifPresent(items::add);
+                items.add(outpoint(input.getTxId().value(), input.getOutputIndex()));
+            }
+        }
+        return GolombFilter.build(block.id().value(), items);
+    }
+
+    /**
+     * Per thread direct buffers, so a block read goes from RocksDB into native memory and is decoded from there.
+     */
+    private static class DirectBuffers {
+        private final ByteBuffer key = ByteBuffer.allocateDirect(64);
+        private ByteBuffer value = ByteBuffer.allocateDirect(64 * 1024);
+
+        private void grow(int size) {
+            value = ByteBuffer.allocateDirect(Integer.highestOneBit(size - 1) << 1);
+        }
+    }
+
+    private static byte[] blockKey(Block.Id id) {
+        return prefixed('b', id);
+    }
+
+    private static byte[] filterKey(Block.Id id) {
+        return prefixed('f', id);
+    }
+
+    private static byte[] headerKey(Block.Id id) {
+        return prefixed('H', id);
+    }
+
+    private static byte[] unspentKey(byte[] pubKeyHash, Transaction.Id txId, int index) {
+        var raw = txId.value();
+        return ByteBuffer.allocate(1 + pubKeyHash.length + raw.length + Integer.BYTES)
+                .put((byte) 'u').put(pubKeyHash).put(raw).putInt(index)
+                .array();
+    }
+
+    private static byte[] prefixed(char prefix, Block.Id id) {
+        var raw = id.value();
+        var key = new byte[raw.length + 1];
+        key[0] = (byte) prefix;
+        arraycopy(raw, 0, key, 1, raw.length);
+        return key;
+    }
+
+    private static byte[] heightKey(long height) {
+        return ByteBuffer.allocate(1 + Long.BYTES).put((byte) 'h').putLong(height).array();
+    }
+
+    private static byte[] cursorKey(int partition) {
+        return ByteBuffer.allocate(1 + Integer.BYTES).put(REINDEX_KEY).putInt(partition).array();
+    }
+
+    private static byte[] idKey(Block.Id id) {
+        return prefixed('i', id);
+    }
+
+    private static byte[] linkKey(Block.Id id) {
+        return prefixed('x', id);
+    }
+
+    private static byte[] totalsKey(long height) {
+        return ByteBuffer.allocate(1 + Long.BYTES).put((byte) 's').putLong(height).array();
+    }
+
     @FunctionalInterface
     interface TransactionalCommand<T> {
-        T apply(Transaction tx) throws RocksDBException;
+        T apply(org.rocksdb.Transaction tx) throws RocksDBException;
     }
 
-    private <T> T withTransaction(TransactionalCommand<T> command) throws RocksDBException {
-        var transaction = db.beginTransaction(new WriteOptions());
-        try {
-            T result = command.apply(transaction);
-            transaction.commit();
-            return result;
-        } catch (RocksDBException ex) {
-            transaction.rollback();
-            throw ex;
+    private <T> T withTransaction(WriteOptions writeOptions, TransactionalCommand<T> command) throws RocksDBException {
+        try (var transaction = db.beginTransaction(writeOptions)) {
+            try {
+                T result = command.apply(transaction);
+                transaction.commit();
+                return result;
+            } catch (RocksDBException ex) {
+                transaction.rollback();
+                throw ex;
+            }
         }
     }
 
+    @Override
     public void close() {
+        prefetcher.shutdown();
+        try {
+            prefetcher.awaitTermination(10, SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        readOptions.close();
         options.close();
         db.close();
     }
+
+    public class View implements BlockRepository.View {
+        private final Snapshot snapshot;
+        private final ReadOptions readOptions;
+
+        private View(Snapshot snapshot) {
+            this.snapshot = snapshot;
+            this.readOptions = new ReadOptions().setSnapshot(snapshot);
+        }
+
+        @Override
+        public Optional<Block.Id> getLastBlockId() {
+            return RocksDbBlockRepository.this.getLastBlockId(readOptions);
+        }
+
+        @Override
+        public Optional<Block> findById(Block.Id id) {
+            return RocksDbBlockRepository.this.findById(readOptions, id);
+        }
+
+        @Override
+        public Optional<Long> getHeight() {
+            return RocksDbBlockRepository.this.getHeight(readOptions);
+        }
+
+        @Override
+        public long getPrunedHeight() {
+            return RocksDbBlockRepository.this.getPrunedHeight(readOptions);
+        }
+
+        /**
+         * Outputs to the pubKeyHash created in pruned blocks and not spent by a pruned block.
+         * Blocks still stored in full may spend them, so callers scanning those must filter these.
+         */
+        @Override
+        public List<OutputReference> unspent(byte[] pubKeyHash) {
+            return RocksDbBlockRepository.this.unspent(readOptions, pubKeyHash);
+        }
+
+        /**
+         * Iterates heights {@code from} to {@code to}, both inclusive, descending when {@code from > to},
+         * leaving out heights below {@link #getPrunedHeight()}.
+         * The height index is scanned with readahead while the next {@code prefetch} blocks are
+         * read and decoded in the background.
+         */
+        @Override
+        public Range range(long from, long to, int prefetch) {
+            return range(from, to, prefetch, x -> true);
+        }
+
+        /**
+         * Like {@link #range(long, long, int)}, but blocks whose id fails {@code include} are never read.
+         */
+        @Override
+        public Range range(long from, long to, int prefetch, Predicate<Block.Id> include) {
+            return new Range(this, from, to, prefetch, include);
+        }
+
+        @Override
+        public boolean mayContainAny(Block.Id id, Collection<byte[]> items) {
+            return RocksDbBlockRepository.this.mayContainAny(readOptions, id, items);
+        }
+
+        @Override
+        public void close() {
+            readOptions.close();
+            db.releaseSnapshot(snapshot);
+        }
+    }
+
+    public class Range implements BlockRepository.Range {
+        private final View view;
+        private final long lowest;
+        private final long to;
+        private final boolean ascending;
+        private final int prefetch;
+        private final Predicate<Block.Id> include;
+        private final ReadOptions iteratorOptions;
+        private final RocksIterator heights;
+        private final Deque<Future<Optional<Block>>> ahead = new ArrayDeque<>();
+
+        private Range(View view, long from, long to, int prefetch, Predicate<Block.Id> include) {
+            if (prefetch < 1) throw new IllegalArgumentException("prefetch must be greater than 0");
+            this.view = view;
+            this.lowest = view.getPrunedHeight();
+            this.to = to;
+            this.ascending = from <= to;
+            this.prefetch = prefetch;
+            this.include = include;
+            this.iteratorOptions = new ReadOptions()
+                    .setSnapshot(view.snapshot)
+                    .setReadaheadSize(READAHEAD_SIZE);
+            this.heights = db.newIterator(iteratorOptions);
+            if (ascending) heights.seek(heightKey(Math.max(from, lowest)));
+            else heights.seekForPrev(heightKey(from));
+            fill();
+        }
+
+        private void fill() {
+            while (ahead.size() < prefetch && heights.isValid()) {
+                var key = heights.key();
+                if (key.length != 1 + Long.BYTES || key[0] != 'h') return;
+                var height = Numbers.toLong(key, 1);
+                if (ascending ? height > to : height < Math.max(to, lowest)) return;
+                var id = new Block.Id(heights.value());
+                if (include.test(id)) {
+                    ahead.add(prefetcher.submit(() -> RocksDbBlockRepository.this.findById(view.readOptions, id)));
+                }
+                if (ascending) heights.next();
+                else heights.prev();
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !ahead.isEmpty();
+        }
+
+        @Override
+        public Block next() {
+            var next = ahead.poll();
+            if (next == null) throw new NoSuchElementException();
+            fill();
+            try {
+                return next.get().orElseThrow();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while reading blocks !", e);
+            } catch (ExecutionException e) {
+                throw new RuntimeException("Fail to read block !", e.getCause());
+            }
+        }
+
+        @Override
+        public void close() {
+            // outstanding reads still use the snapshot, so let them finish before it can be released
+            for (var future : ahead) {
+                try {
+                    future.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (ExecutionException ignored) {
+                }
+            }
+            ahead.clear();
+            heights.close();
+            iteratorOptions.close();
+        }
+    }
 }
@@ -0,0 +1,81 @@
+package one.wangwei.blockchain.store;
+
+import one.wangwei.blockchain.block.Block;
+import one.wangwei.blockchain.transaction.Output;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Running sums from genesis up to and including one height, plus the time stamp of the block at that
+ * height, so any height range is answered by subtracting two of these instead of reading its blocks.
+ *
+ * @param issued value created by coinbase transactions, which is the supply
+ * @param bytes  serialized size of the stored blocks
+ */
+public record Totals(long transactions, long inputs, long outputs, long issued, long bytes, long timeMillis) {
+    public static final Totals Zero = new Totals(0, 0, 0, 0, 0, 0);
+
+    static final int SIZE = 6 * Long.BYTES;
+
+    public Totals next(Block block, int size) {
+        long inputs = 0, outputs = 0, issued = 0;
+        for (var tx : block.transactions()) {
+            outputs += tx.outputs().length;
+            if (tx.isCoinbase()) issued += Arrays.stream(tx.outputs()).mapToLong(Output::value).sum();
+            else inputs += tx.inputs().length;
+        }
+        return new Totals(
+                transactions + block.transactions().length,
+                this.inputs + inputs,
+                this.outputs + outputs,
+                this.issued + issued,
+                bytes + size,
+                block.timeStamp().toEpochMilli()
+        );
+    }
+
+    /**
+     * The sums over the heights after {@code earlier} up to this one.
+     */
+    public Totals minus(Totals earlier) {
+        return new Totals(
+                transactions - earlier.transactions,
+                inputs - earlier.inputs,
+                outputs - earlier.outputs,
+                issued - earlier.issued,
+                bytes - earlier.bytes,
+                timeMillis
+        );
+    }
+
+    /**
+     * The sums through the heights of both, {@code later} covering the heights right after this one.
+     */
+    public Totals plus(Totals later) {
+        return new Totals(
+                transactions + later.transactions,
+                inputs + later.inputs,
+                outputs + later.outputs,
+                issued + later.issued,
+                bytes + later.bytes,
+                later.timeMillis
+        );
+    }
+
+    public static Totals fromBytes(byte[] bytes) {
+        var buffer = ByteBuffer.wrap(bytes);
+        return new Totals(buffer.getLong(), buffer.getLong(), buffer.getLong(), buffer.getLong(), buffer.getLong(), buffer.getLong());
+    }
+
+    public byte[] toBytes() {
+        return ByteBuffer.allocate(SIZE)
+                .putLong(transactions)
+                .putLong(inputs)
+                .putLong(outputs)
+                .putLong(issued)
+                .putLong(bytes)
+                .putLong(timeMillis)
+                .array();
+    }
+}
@@ -0,0 +1,150 @@
+package one.wangwei.blockchain.transaction;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * How a payment picks the unspent outputs it spends, chosen with {@code -Dblockchain.coinSelection}.
+ * Every input costs a signature, a verification and its bytes in the block, so no strategy spends more
+ * than {@link #MAX_INPUTS} outputs; a wallet of small outputs is merged with {@link #consolidate} instead.
+ */
+public enum CoinSelection {
+    /**
+     * The outputs in the order the chain is walked, newest first, until the amount is covered.
+     * The only strategy that stops reading the chain early.
+     */
+    ChainOrder {
+        @Override
+        public List<OutputReference> select(Stream<OutputReference> unspent, long amount) {
+            var result = new ArrayList<OutputReference>();
+            var total = 0L;
+            for (var iterator = unspent.iterator(); total < amount && iterator.hasNext(); ) {
+                var next = iterator.next();
+                result.add(next);
+                total += next.output().value();
+            }
+            return checked(result, total, amount);
+        }
+    },
+    /**
+     * The largest outputs first, which covers the amount with the fewest inputs.
+     */
+    LargestFirst {
+        @Override
+        public List<OutputReference> select(Stream<OutputReference> unspent, long amount) {
+            return largestFirst(unspent.sorted(LARGEST_FIRST).toList(), amount);
+        }
+    },
+    /**
+     * Outputs adding up to exactly the amount, so the payment needs no change output, and as few of them
+     * as a search of {@link #TRIES} steps finds; {@link #LargestFirst} when it finds none. Like that one it
+     * sorts every unspent output, which without an index of unspent outputs means scanning the whole chain.
+     */
+    BranchAndBound {
+        @Override
+        public List<OutputReference> select(Stream<OutputReference> unspent, long amount) {
+            var sorted = unspent.sorted(LARGEST_FIRST).toList();
+            var exact = new ExactMatch(sorted, amount).search();
+            return exact != null ? exact : largestFirst(sorted, amount);
+        }
+    };
+
+    public static final int MAX_INPUTS = checkMaxInputs(Integer.getInteger("blockchain.maxInputs", 50));
+    private static final int TRIES = 100_000;
+    private static final Comparator<OutputReference> LARGEST_FIRST = Comparator.comparingInt((OutputReference x) -> x.output().value()).reversed();
+
+    /**
+     * {@link #ChainOrder} unless set otherwise, the others read every unspent output.
+     */
+    public static CoinSelection configured() {
+        return valueOf(System.getProperty("blockchain.coinSelection", ChainOrder.name()));
+    }
+
+    static int checkMaxInputs(int maxInputs) {
+        if (maxInputs < 1) throw new IllegalArgumentException("blockchain.maxInputs must be greater than 0, was %s".formatted(maxInputs));
+        return maxInputs;
+    }
+
+    /**
+     * The outputs to spend for {@code amount}. Throws when the funds are insufficient, or cover the amount
+     * only with more than {@link #MAX_INPUTS} inputs.
+     */
+    public abstract List<OutputReference> select(Stream<OutputReference> unspent, long amount);
+
+    /**
+     * The smallest outputs, up to {@code max} of them, which are the ones that would otherwise make later
+     * payments long. Worth spending into one output when nothing else is waiting to be mined.
+     */
+    public static List<OutputReference> consolidate(Stream<OutputReference> unspent, int max) {
+        return unspent.sorted(LARGEST_FIRST.reversed()).limit(max).toList();
+    }
+
+    private static List<OutputReference> largestFirst(List<OutputReference> sorted, long amount) {
+        var total = 0L;
+        var count = 0;
+        while (total < amount && count < sorted.size()) total += sorted.get(count++).output().value();
+        return checked(sorted.subList(0, count), total, amount);
+    }
+
+    private static List<OutputReference> checked(List<OutputReference> selected, long total, long amount) {
+        if (total < amount) throw new RuntimeException("insufficient funds");
+        if (selected.size() > MAX_INPUTS) {
+            throw new RuntimeException("amount %s needs %s inputs, more than %s, consolidate first".formatted(amount, selected.size(), MAX_INPUTS));
+        }
+        return selected;
+    }
+
+    /**
+     * A depth first search over the outputs, largest first, each taken or left out. A branch is cut when
+     * its total passes the amount, when even the largest outputs it may still take fall short, or when it
+     * cannot beat the fewest inputs found so far. Leaving out an output leaves out those of equal value
+     * too, as taking one of them instead would repeat a set already tried.
+     */
+    private static class ExactMatch {
+        private final List<OutputReference> sorted;
+        private final long amount;
+        // prefix[i] is the sum of the i largest values
+        private final long[] prefix;
+        private final int[] chosen = new int[MAX_INPUTS];
+        private int[] best;
+        private int tries = TRIES;
+
+        private ExactMatch(List<OutputReference> sorted, long amount) {
+            this.sorted = sorted;
+            this.amount = amount;
+            this.prefix = new long[sorted.size() + 1];
+            for (var i = 0; i < sorted.size(); i++) prefix[i + 1] = prefix[i] + value(i);
+        }
+
+        private List<OutputReference> search() {
+            if (amount > 0) search(0, 0, 0);
+            return best == null ? null : Arrays.stream(best).mapToObj(sorted::get).toList();
+        }
+
+        private void search(int index, int depth, long total) {
+            var size = sorted.size();
+            for (var i = index; i < size && tries-- > 0; ) {
+                if (best != null && depth + 1 >= best.length) return;
+                if (total + prefix[Math.min(size, i + MAX_INPUTS - depth)] - prefix[i] < amount) return;
+                var value = value(i);
+                if (total + value <= amount) {
+                    chosen[depth] = i;
+                    // every other set from here takes at least as many inputs
+                    if (total + value == amount) {
+                        best = Arrays.copyOf(chosen, depth + 1);
+                        return;
+                    }
+                    if (depth + 1 < MAX_INPUTS) search(i + 1, depth + 1, total + value);
+                }
+                do i++; while (i < size && value(i) == value);
+            }
+        }
+
+        private int value(int i) {
+            return sorted.get(i).output().value();
+        }
+    }
+}
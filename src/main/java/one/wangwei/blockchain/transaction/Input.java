@@ -1,7 +1,7 @@
 package one.wangwei.blockchain.transaction;
 
-import one.wangwei.blockchain.util.Hashes;
-import one.wangwei.blockchain.util.Numbers;
+import one.wangwei.blockchain.util.Sha256;
+import one.wangwei.blockchain.wallet.SignatureScheme;
 
 import java.util.Arrays;
 import java.util.HexFormat;
@@ -9,8 +9,10 @@ import java.util.HexFormat;
 public class Input {
     private final Transaction.Id txId;
     private final int outputIndex;
+    private final SignatureScheme scheme;
     private byte[] signature;
     private byte[] pubKey;
+    private transient volatile byte[] hash;
 
     public Transaction.Id getTxId() {
         return txId;
@@ -20,6 +22,10 @@ public class Input {
         return outputIndex;
     }
 
+    public SignatureScheme getScheme() {
+        return scheme;
+    }
+
     public byte[] getSignature() {
         return signature;
     }
@@ -30,14 +36,32 @@ public class Input {
 
     public void setSignature(final byte[] signature) {
         this.signature = signature;
+        this.hash = null;
     }
 
     public void setPubKey(final byte[] pubKey) {
         this.pubKey = pubKey;
+        this.hash = null;
     }
 
     public byte[] hash() {
-        return Hashes.sha256(txId.value(), Numbers.toBytes(outputIndex), signature, pubKey);
+        return cachedHash().clone();
+    }
+
+    /**
+     * The memoized hash itself, for callers in this package that only read it.
+     */
+    byte[] cachedHash() {
+        var hash = this.hash;
+        if (hash == null) this.hash = hash = computeHash();
+        return hash;
+    }
+
+    private byte[] computeHash() {
+        var sha = Sha256.begin().put(txId.value()).putInt(outputIndex);
+        // the legacy scheme is left out of the hash so that existing transaction ids stay valid
+        if (scheme != SignatureScheme.Secp521r1) sha.put(scheme.value());
+        return sha.put(signature).put(pubKey).digest();
     }
 
     @Override
@@ -47,6 +71,7 @@ public class Input {
         if (!other.canEqual(this)) return false;
         if (this.getOutputIndex() != other.getOutputIndex()) return false;
         if (!this.getTxId().equals(other.getTxId())) return false;
+        if (this.getScheme() != other.getScheme()) return false;
         if (!Arrays.equals(this.getSignature(), other.getSignature())) return false;
         return Arrays.equals(this.getPubKey(), other.getPubKey());
     }
@@ -61,6 +86,7 @@ public class Input {
         int result = 1;
         result = result * PRIME + getOutputIndex();
         result = result * PRIME + getTxId().hashCode();
+        result = result * PRIME + getScheme().hashCode();
         result = result * PRIME + Arrays.hashCode(getSignature());
         result = result * PRIME + Arrays.hashCode(getPubKey());
         return result;
@@ -68,17 +94,23 @@ public class Input {
 
     @Override
     public String toString() {
-        return "TXInput[txId=%s, txOutputIndex=%d, signature=%s, pubKey=%s]".formatted(
+        return "TXInput[txId=%s, txOutputIndex=%d, scheme=%s, signature=%s, pubKey=%s]".formatted(
                 txId,
                 outputIndex,
+                scheme,
                 signature == null ? "" : HexFormat.of().formatHex(signature),
                 pubKey == null ? "" : HexFormat.of().formatHex(pubKey)
         );
     }
 
     public Input(final Transaction.Id txId, final int outputIndex, final byte[] signature, final byte[] pubKey) {
+        this(txId, outputIndex, SignatureScheme.Secp521r1, signature, pubKey);
+    }
+
+    public Input(final Transaction.Id txId, final int outputIndex, final SignatureScheme scheme, final byte[] signature, final byte[] pubKey) {
         this.txId = txId;
         this.outputIndex = outputIndex;
+        this.scheme = scheme;
         this.signature = signature;
         this.pubKey = pubKey;
     }
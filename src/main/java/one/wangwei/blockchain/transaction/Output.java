@@ -1,7 +1,6 @@
 package one.wangwei.blockchain.transaction;
 
-import one.wangwei.blockchain.util.Hashes;
-import one.wangwei.blockchain.util.Numbers;
+import one.wangwei.blockchain.util.Sha256;
 import one.wangwei.blockchain.wallet.Address;
 
 import java.util.HexFormat;
@@ -13,7 +12,7 @@ public record Output(int value, byte[] pubKeyHash) {
     }
 
     public byte[] hash() {
-        return Hashes.sha256(Numbers.toBytes(value), pubKeyHash);
+        return Sha256.begin().putInt(value).put(pubKeyHash).digest();
     }
 
     @Override
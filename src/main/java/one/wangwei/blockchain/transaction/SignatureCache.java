@@ -0,0 +1,72 @@
+package one.wangwei.blockchain.transaction;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Remembers which (transaction id, input index) signatures already verified, so a transaction checked on
+ * admission is not checked again when it is mined. An entry only counts for the exact transaction content
+ * it was verified with, since the id is assigned before signing and does not cover the signatures.
+ * Bounded and least recently used, striped so concurrent verifiers rarely contend.
+ */
+public class SignatureCache {
+    private static final int STRIPES = 16;
+
+    private final Stripe[] stripes = new Stripe[STRIPES];
+
+    public SignatureCache(int capacity) {
+        for (var i = 0; i < STRIPES; i++) stripes[i] = new Stripe(Math.max(1, capacity / STRIPES));
+    }
+
+    /**
+     * The indexes of the inputs not yet verified for this content of the transaction.
+     */
+    public BitSet unverified(Transaction tx) {
+        var hash = tx.hash();
+        var inputs = tx.inputs().length;
+        var result = new BitSet(inputs);
+        for (var i = 0; i < inputs; i++) {
+            var key = new Key(tx.id(), i);
+            if (!Arrays.equals(stripe(key).get(key), hash)) result.set(i);
+        }
+        return result;
+    }
+
+    public void verified(Transaction tx, BitSet inputs) {
+        var hash = tx.hash();
+        inputs.stream().forEach(i -> {
+            var key = new Key(tx.id(), i);
+            stripe(key).put(key, hash);
+        });
+    }
+
+    private Stripe stripe(Key key) {
+        return stripes[(key.hashCode() & 0x7fffffff) % STRIPES];
+    }
+
+    private record Key(Transaction.Id txId, int index) {
+    }
+
+    private static class Stripe {
+        private final Map<Key, byte[]> entries;
+
+        private Stripe(int capacity) {
+            this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Key, byte[]> eldest) {
+                    return size() > capacity;
+                }
+            };
+        }
+
+        private synchronized byte[] get(Key key) {
+            return entries.get(key);
+        }
+
+        private synchronized void put(Key key, byte[] hash) {
+            entries.put(key, hash);
+        }
+    }
+}
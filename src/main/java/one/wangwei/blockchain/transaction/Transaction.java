@@ -2,31 +2,32 @@ package one.wangwei.blockchain.transaction;
 
 import one.wangwei.blockchain.block.Blockchain;
 import one.wangwei.blockchain.util.BtcAddressUtils;
-import one.wangwei.blockchain.util.Hashes;
-import one.wangwei.blockchain.util.Numbers;
+import one.wangwei.blockchain.util.Sha256;
 import one.wangwei.blockchain.wallet.Address;
+import one.wangwei.blockchain.wallet.Wallet;
 import one.wangwei.blockchain.wallet.WalletRepository;
 
 import java.io.IOException;
 import java.security.*;
 import java.security.spec.InvalidKeySpecException;
-import java.security.spec.X509EncodedKeySpec;
 import java.time.Instant;
 import java.util.Arrays;
 import java.util.HexFormat;
-import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
-import java.util.function.Predicate;
+import java.util.Optional;
+import java.util.function.IntPredicate;
 
-import static java.util.stream.Collectors.toCollection;
 import static one.wangwei.blockchain.util.MerkleRoot.merkleRoot;
 
 public class Transaction {
-    private static final int SUBSIDY = 10;
+    public static final int SUBSIDY = 10;
     private Id id;
     private final Input[] inputs;
     private final Output[] outputs;
     private final Instant created;
+    private transient volatile Digest digest;
+    private transient volatile byte[] outputsRoot;
 
     public static Transaction createCoinbaseTX(Address to, String data) {
         if (data.isBlank()) data = "Reward to '%s'".formatted(to);
@@ -38,33 +39,51 @@ public class Transaction {
     }
 
     public static Transaction createTransaction(Address from, Address to, int amount, Blockchain chain, WalletRepository walletRepository) throws SignatureException, InvalidKeyException, NoSuchAlgorithmException, NoSuchProviderException, IOException, ClassNotFoundException {
-        var fromWallet = walletRepository.getWallet(from);
-        var predicate = new Predicate<OutputReference>() {
-            private int total;
+        return createTransaction(from, to, amount, chain, walletRepository, CoinSelection.configured());
+    }
 
-            @Override
-            public boolean test(OutputReference x) {
-                total += x.output().value();
-                return total < amount;
-            }
-        };
-        var result = chain.getUnspent(fromWallet)
-                .takeWhile(predicate)
-                .toList();
-        if (predicate.total < amount) throw new RuntimeException("insufficient funds");
-
-        var inputs = result.stream()
-                .map(x -> new Input(x.txId(), x.index(), null, fromWallet.publicKey().getEncoded()))
-                .toArray(Input[]::new);
+    public static Transaction createTransaction(Address from, Address to, int amount, Blockchain chain, WalletRepository walletRepository, CoinSelection selection) throws SignatureException, InvalidKeyException, NoSuchAlgorithmException, NoSuchProviderException, IOException, ClassNotFoundException {
+        var fromWallet = walletRepository.getWallet(from);
+        List<OutputReference> result;
+        try (var unspent = chain.getUnspent(fromWallet)) {
+            result = selection.select(unspent, amount);
+        }
+        var total = result.stream().mapToLong(x -> x.output().value()).sum();
 
         var toWallet = walletRepository.getWallet(to);
         var toPubKey = toWallet.publicKey().getEncoded();
         var toPubKeyHash = BtcAddressUtils.ripeMD160Hash(toPubKey);
         var first = new Output(amount, toPubKeyHash);
-        var outputs = predicate.total > amount ?
-                new Output[]{first, new Output(predicate.total - amount, BtcAddressUtils.ripeMD160Hash(fromWallet.publicKey().getEncoded()))} :
+        var outputs = total > amount ?
+                new Output[]{first, new Output(Math.toIntExact(total - amount), BtcAddressUtils.ripeMD160Hash(fromWallet.publicKey().getEncoded()))} :
                 new Output[]{first};
 
+        return spend(fromWallet, result, outputs, chain);
+    }
+
+    /**
+     * Merges the smallest outputs of the address, up to {@link CoinSelection#MAX_INPUTS}, into one, so that
+     * later payments spend fewer inputs. Empty when there are fewer than two outputs to merge.
+     */
+    public static Optional<Transaction> createConsolidation(Address address, Blockchain chain, WalletRepository walletRepository) throws SignatureException, InvalidKeyException, NoSuchAlgorithmException, NoSuchProviderException, IOException, ClassNotFoundException {
+        var wallet = walletRepository.getWallet(address);
+        List<OutputReference> result;
+        try (var unspent = chain.getUnspent(wallet)) {
+            result = CoinSelection.consolidate(unspent, CoinSelection.MAX_INPUTS);
+        }
+        if (result.size() < 2) return Optional.empty();
+        // values are ints, a sum past the range would silently wrap
+        var total = Math.toIntExact(result.stream().mapToLong(x -> x.output().value()).sum());
+        var output = new Output(total, BtcAddressUtils.ripeMD160Hash(wallet.publicKey().getEncoded()));
+        return Optional.of(spend(wallet, result, new Output[]{output}, chain));
+    }
+
+    private static Transaction spend(Wallet fromWallet, List<OutputReference> spent, Output[] outputs, Blockchain chain) throws SignatureException, InvalidKeyException, NoSuchAlgorithmException, NoSuchProviderException {
+        var fromPubKey = fromWallet.scheme().encodePublicKey(fromWallet.publicKey());
+        var inputs = spent.stream()
+                .map(x -> new Input(x.txId(), x.index(), fromWallet.scheme(), null, fromPubKey))
+                .toArray(Input[]::new);
+
         var tx = new Transaction(null, inputs, outputs, Instant.now());
         tx.id(new Id(tx.hash()));
 
@@ -74,11 +93,51 @@ public class Transaction {
     }
 
     public byte[] hash() {
-        return Hashes.sha256(
-                merkleRoot(Arrays.stream(inputs()).map(Input::hash).collect(toCollection(LinkedList::new))),
-                merkleRoot(Arrays.stream(outputs()).map(Output::hash).collect(toCollection(LinkedList::new))),
-                Numbers.toBytes(created().toEpochMilli())
-        );
+        return cachedHash().clone();
+    }
+
+    private byte[] cachedHash() {
+        // inputs cache their own hash until mutated, so an unchanged leaf is the very same array
+        var leaves = new byte[inputs().length][];
+        for (var i = 0; i < leaves.length; i++) leaves[i] = inputs()[i].cachedHash();
+        // read once: the leaves and the hash of one computation are only ever published together
+        var digest = this.digest;
+        if (digest != null && digest.covers(leaves)) return digest.hash();
+        var inputsRoot = merkleRoot(Arrays.asList(leaves));
+        var hash = Sha256.begin().put(inputsRoot).put(outputsRoot()).putLong(created().toEpochMilli()).digest();
+        this.digest = new Digest(leaves, hash);
+        return hash;
+    }
+
+    private byte[] outputsRoot() {
+        var root = outputsRoot;
+        if (root == null) outputsRoot = root = merkleRoot(Arrays.stream(outputs()).map(Output::hash).toList());
+        return root;
+    }
+
+    /**
+     * The input hashes a transaction hash was computed from, so it is reused only while every leaf is
+     * the very same array.
+     */
+    private record Digest(byte[][] leaves, byte[] hash) {
+        private boolean covers(byte[][] current) {
+            if (current.length != leaves.length) return false;
+            for (var i = 0; i < current.length; i++) if (current[i] != leaves[i]) return false;
+            return true;
+        }
+    }
+
+    /**
+     * Whether the id is the hash it was derived from, that of the transaction before its inputs were signed.
+     */
+    public boolean hasConsistentId() {
+        if (id() == null) return false;
+        var unsigned = new Input[inputs().length];
+        for (var i = 0; i < unsigned.length; i++) {
+            var input = inputs()[i];
+            unsigned[i] = new Input(input.getTxId(), input.getOutputIndex(), input.getScheme(), null, input.getPubKey());
+        }
+        return Arrays.equals(id().value(), new Transaction(null, unsigned, outputs(), created()).hash());
     }
 
     public boolean isCoinbase() {
@@ -89,58 +148,73 @@ public class Transaction {
         var tmpTXInputs = new Input[inputs().length];
         for (var i = 0; i < inputs().length; i++) {
             var txInput = inputs()[i];
-            tmpTXInputs[i] = new Input(txInput.getTxId(), txInput.getOutputIndex(), null, null);
+            tmpTXInputs[i] = new Input(txInput.getTxId(), txInput.getOutputIndex(), txInput.getScheme(), null, null);
         }
         var tmpTXOutputs = new Output[outputs().length];
         for (var i = 0; i < outputs().length; i++) {
             var txOutput = outputs()[i];
             tmpTXOutputs[i] = new Output(txOutput.value(), txOutput.pubKeyHash());
         }
-        return new Transaction(id(), tmpTXInputs, tmpTXOutputs, created());
+        var copy = new Transaction(id(), tmpTXInputs, tmpTXOutputs, created());
+        copy.outputsRoot = outputsRoot;
+        return copy;
     }
 
-    public void sign(PrivateKey privateKey, Map<Id, Transaction> prevTxMap) throws NoSuchAlgorithmException, InvalidKeyException, SignatureException, NoSuchProviderException {
-        if (isCoinbase()) return;
-        for (var txInput : inputs()) {
-            if (!prevTxMap.containsKey(txInput.getTxId()))
+    private byte[][] signingHashes(Map<Id, Transaction> prevTxMap, IntPredicate selected) {
+        for (var i = 0; i < inputs().length; i++) {
+            if (selected.test(i) && !prevTxMap.containsKey(inputs()[i].getTxId()))
                 throw new RuntimeException("ERROR: Previous transaction is not correct");
         }
         var txCopy = trimmedCopy();
-        var signature = Signature.getInstance("SHA256withECDSA", "SunEC");
-        signature.initSign(privateKey);
-        for (var i = 0; i < txCopy.inputs().length; i++) {
+        var hashes = new byte[inputs().length][];
+        for (var i = 0; i < hashes.length; i++) {
+            if (!selected.test(i)) continue;
             var txInputCopy = txCopy.inputs()[i];
             var prevTx = prevTxMap.get(txInputCopy.getTxId());
             var prevTxOutput = prevTx.outputs()[txInputCopy.getOutputIndex()];
             txInputCopy.setPubKey(prevTxOutput.pubKeyHash());
-            txInputCopy.setSignature(null);
-            signature.update(txCopy.hash());
-            inputs()[i].setSignature(signature.sign());
+            hashes[i] = txCopy.hash();
             txInputCopy.setPubKey(null);
         }
+        return hashes;
+    }
+
+    public void sign(PrivateKey privateKey, Map<Id, Transaction> prevTxMap) throws NoSuchAlgorithmException, InvalidKeyException, SignatureException, NoSuchProviderException {
+        if (isCoinbase()) return;
+        var hashes = signingHashes(prevTxMap, i -> true);
+        for (var i = 0; i < hashes.length; i++) {
+            var signature = inputs()[i].getScheme().signature();
+            signature.initSign(privateKey);
+            signature.update(hashes[i]);
+            inputs()[i].setSignature(signature.sign());
+        }
     }
 
     public boolean verify(Map<Id, Transaction> prevTxMap) throws InvalidKeySpecException, InvalidKeyException, SignatureException, NoSuchAlgorithmException, NoSuchProviderException {
+        return verify(prevTxMap, i -> true);
+    }
+
+    /**
+     * Verifies the signatures of the selected inputs only; {@code prevTxMap} needs no entry for the others.
+     */
+    public boolean verify(Map<Id, Transaction> prevTxMap, IntPredicate selected) throws InvalidKeySpecException, InvalidKeyException, SignatureException, NoSuchAlgorithmException, NoSuchProviderException {
         if (this.isCoinbase()) return true;
-        for (var txInput : inputs()) {
-            if (!prevTxMap.containsKey(txInput.getTxId()))
-                throw new RuntimeException("ERROR: Previous transaction is not correct");
-        }
-        var txCopy = trimmedCopy();
-        var keyFactory = KeyFactory.getInstance("EC", "SunEC");
-        var signature = Signature.getInstance("SHA256withECDSA", "SunEC");
-        for (var i = 0; i < inputs().length; i++) {
+        var hashes = signingHashes(prevTxMap, selected);
+        for (var i = 0; i < hashes.length; i++) {
+            if (hashes[i] == null) continue;
             var txInput = inputs()[i];
-            var prevTx = prevTxMap.get(txInput.getTxId());
-            var prevTxOutput = prevTx.outputs()[txInput.getOutputIndex()];
-            var txInputCopy = txCopy.inputs()[i];
-            txInputCopy.setSignature(null);
-            txInputCopy.setPubKey(prevTxOutput.pubKeyHash());
-            var publicKey = keyFactory.generatePublic(new X509EncodedKeySpec(txInput.getPubKey()));
+            var scheme = txInput.getScheme();
+            var signature = scheme.signature();
+            PublicKey publicKey;
+            try {
+                publicKey = scheme.decodePublicKey(txInput.getPubKey());
+            } catch (InvalidKeySpecException e) {
+                // a key that does not decode signs nothing
+                return false;
+            }
             signature.initVerify(publicKey);
-            signature.update(txCopy.hash());
+            signature.update(hashes[i]);
             if (!signature.verify(txInput.getSignature())) return false;
-            txInputCopy.setPubKey(null);
         }
         return true;
     }
@@ -0,0 +1,147 @@
+package one.wangwei.blockchain.util;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Golomb-coded set: items hashed into [0, N * M), sorted, and their deltas Rice coded with P low bits.
+ * About P + 2 bits per item with a false positive rate of 1 / M, and no false negatives.
+ * The key, a block id in practice, salts the hash so each filter has its own false positives.
+ */
+public final class GolombFilter {
+    private static final int P = 19;
+    private static final long M = 784931;
+
+    private final int count;
+    private final byte[] bits;
+
+    private GolombFilter(int count, byte[] bits) {
+        this.count = count;
+        this.bits = bits;
+    }
+
+    public static GolombFilter build(byte[] key, Collection<byte[]> items) {
+        var range = items.size() * M;
+        var values = items.stream().mapToLong(x -> Long.remainderUnsigned(hash(key, x), range)).sorted().distinct().toArray();
+        var writer = new BitWriter(values.length * (P + 2));
+        var previous = 0L;
+        for (var value : values) {
+            var delta = value - previous;
+            for (var q = delta >>> P; q > 0; q--) writer.write(1);
+            writer.write(0);
+            for (var i = P - 1; i >= 0; i--) writer.write((int) (delta >>> i) & 1);
+            previous = value;
+        }
+        return new GolombFilter(items.size(), writer.toByteArray());
+    }
+
+    public static GolombFilter fromBytes(byte[] bytes) {
+        var buffer = ByteBuffer.wrap(bytes);
+        var count = buffer.getInt();
+        return new GolombFilter(count, Arrays.copyOfRange(bytes, Integer.BYTES, bytes.length));
+    }
+
+    public byte[] toBytes() {
+        return ByteBuffer.allocate(Integer.BYTES + bits.length).putInt(count).put(bits).array();
+    }
+
+    public boolean mayContain(byte[] key, byte[] item) {
+        return mayContainAny(key, List.of(item));
+    }
+
+    /**
+     * Whether any of the items may be in the set. The n items are hashed with the filter's key and sorted,
+     * O(n log n), then merged against the decoded values in a single pass over the filter rather than one
+     * pass per item.
+     */
+    public boolean mayContainAny(byte[] key, Collection<byte[]> items) {
+        if (count == 0 || items.isEmpty()) return false;
+        var range = count * M;
+        var targets = items.stream().mapToLong(x -> Long.remainderUnsigned(hash(key, x), range)).sorted().toArray();
+        var next = 0;
+        var reader = new BitReader(bits);
+        var value = 0L;
+        while (reader.hasMore()) {
+            var q = 0L;
+            while (reader.read() == 1) q++;
+            var r = 0L;
+            for (var i = 0; i < P; i++) r = r << 1 | reader.read();
+            value += q << P | r;
+            while (targets[next] < value) {
+                if (++next == targets.length) return false;
+            }
+            if (targets[next] == value) return true;
+        }
+        return false;
+    }
+
+    // keyed 64 bit mix over 8 byte words; only needs to spread well, collisions are just false positives
+    private static long hash(byte[] key, byte[] item) {
+        var h = word(key, 0) ^ item.length;
+        for (var offset = 0; offset < item.length; offset += Long.BYTES) {
+            h = mix(h ^ word(item, offset));
+        }
+        return mix(h ^ word(key, Long.BYTES));
+    }
+
+    private static long word(byte[] bytes, int offset) {
+        var word = 0L;
+        for (var i = 0; i < Long.BYTES; i++) {
+            word = word << 8 | (offset + i < bytes.length ? bytes[offset + i] & 0xff : 0);
+        }
+        return word;
+    }
+
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private static final class BitWriter {
+        private byte[] bytes;
+        private long position;
+
+        private BitWriter(int expectedBits) {
+            bytes = new byte[Math.max(1, (expectedBits + 7) / 8)];
+        }
+
+        private void write(int bit) {
+            var index = (int) (position >>> 3);
+            if (index == bytes.length) bytes = Arrays.copyOf(bytes, bytes.length * 2);
+            if (bit != 0) bytes[index] |= (byte) (0x80 >>> (position & 7));
+            position++;
+        }
+
+        private byte[] toByteArray() {
+            return Arrays.copyOf(bytes, (int) ((position + 7) >>> 3));
+        }
+    }
+
+    private static final class BitReader {
+        private final byte[] bytes;
+        private long position;
+
+        private BitReader(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        // the zero padding of the last byte is too short to hold another value
+        private boolean hasMore() {
+            return position + P + 1 <= bytes.length * 8L;
+        }
+
+        private int read() {
+            var index = (int) (position >>> 3);
+            if (index >= bytes.length) return 0;
+            var bit = (bytes[index] >>> (7 - (position & 7))) & 1;
+            position++;
+            return bit;
+        }
+    }
+}
@@ -6,7 +6,9 @@ import java.security.NoSuchProviderException;
 
 public final class Hashes {
     public static byte[] sha256(byte[] first, byte[]... rest) {
-        return digest("SHA256", "SUN", first, rest);
+        var sha = Sha256.begin().put(first);
+        for (var bytes : rest) sha.put(bytes);
+        return sha.digest();
     }
 
     public static byte[] ripemd160(byte[] first, byte[]... rest) {
@@ -0,0 +1,50 @@
+package one.wangwei.blockchain.util;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.serializers.VersionFieldSerializer;
+import one.wangwei.blockchain.transaction.Transaction;
+import one.wangwei.blockchain.wallet.SignatureScheme;
+
+/**
+ * Writes inputs with their version, new fields taking an {@code @Since}. Inputs were first stored without a
+ * version, as the plain field serializer laid them out, under the registration id they had then. Input is
+ * registered under that id too, with this serializer told to read the old layout, so the class id tag in
+ * front of every stored input picks the layout; whichever id is read, inputs are always written versioned.
+ * <p>
+ * The old layout is outputIndex, pubKey, signature and txId, by field name. Inputs written once schemes
+ * existed also carry the scheme between pubKey and signature. Its ordinal plus one, 1 to 3, cannot be taken
+ * for a signature length plus one, as no signature is under 3 bytes, and a coinbase input, which has no
+ * signature, was always written with the legacy scheme. Inputs without a scheme are secp521r1, the only
+ * scheme there was.
+ */
+public class InputSerializer extends VersionFieldSerializer<one.wangwei.blockchain.transaction.Input> {
+    // the schemes there were while inputs were written without a version
+    private static final int SCHEMES = 3;
+
+    private final boolean unversioned;
+
+    public InputSerializer(Kryo kryo, boolean unversioned) {
+        super(kryo, one.wangwei.blockchain.transaction.Input.class);
+        this.unversioned = unversioned;
+    }
+
+    @Override
+    public one.wangwei.blockchain.transaction.Input read(Kryo kryo, Input input, Class<? extends one.wangwei.blockchain.transaction.Input> type) {
+        if (!unversioned) return super.read(kryo, input, type);
+        var outputIndex = input.readVarInt(false);
+        var pubKey = kryo.readObjectOrNull(input, byte[].class);
+        var next = input.readVarInt(true);
+        SignatureScheme scheme;
+        byte[] signature;
+        if (next >= 1 && next <= SCHEMES) {
+            scheme = SignatureScheme.values()[next - 1];
+            signature = kryo.readObjectOrNull(input, byte[].class);
+        } else {
+            scheme = SignatureScheme.Secp521r1;
+            signature = next == 0 ? null : input.readBytes(next - 1);
+        }
+        var txId = kryo.readObjectOrNull(input, Transaction.Id.class);
+        return new one.wangwei.blockchain.transaction.Input(txId, outputIndex, scheme, signature, pubKey);
+    }
+}
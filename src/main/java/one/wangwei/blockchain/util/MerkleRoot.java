@@ -1,23 +1,85 @@
 package one.wangwei.blockchain.util;
 
-import java.util.Deque;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Queue;
 
-import static one.wangwei.blockchain.util.Hashes.sha256;
-
 public final class MerkleRoot {
-    public static byte[] merkleRoot(Deque<byte[]> hashes) {
-        return hashes.isEmpty() ? sha256(null) : iterate(hashes).poll();
+    /**
+     * Pairs up and hashes the leaves level by level, an odd last node with itself, until one is left.
+     * Every level above the leaves is hashed in place in one flat buffer.
+     */
+    public static byte[] merkleRoot(List<byte[]> hashes) {
+        if (hashes.isEmpty()) return Sha256.begin().digest();
+        if (hashes.size() == 1) return hashes.get(0).clone();
+        var count = (hashes.size() + 1) / 2;
+        var level = new byte[count * Sha256.BYTES];
+        for (var i = 0; i < count; i++) {
+            var left = hashes.get(2 * i);
+            var right = 2 * i + 1 < hashes.size() ? hashes.get(2 * i + 1) : left;
+            Sha256.begin().put(left).put(right).digest(level, i * Sha256.BYTES);
+        }
+        for (; count > 1; count = (count + 1) / 2) {
+            for (var i = 0; i < (count + 1) / 2; i++) {
+                var right = 2 * i + 1 < count ? 2 * i + 1 : 2 * i;
+                Sha256.begin()
+                        .put(level, 2 * i * Sha256.BYTES, Sha256.BYTES)
+                        .put(level, right * Sha256.BYTES, Sha256.BYTES)
+                        .digest(level, i * Sha256.BYTES);
+            }
+        }
+        return Arrays.copyOf(level, Sha256.BYTES);
     }
 
+    /**
+     * Drains the queue and returns the root alone in a new one, as the queue based implementation did.
+     *
+     * @deprecated hashes pair by pair through a queue per level, use {@link #merkleRoot(List)}
+     */
+    @Deprecated
     public static Queue<byte[]> iterate(Queue<byte[]> hashes) {
         if (hashes.size() == 1) return hashes;
-        var next = new LinkedList<byte[]>();
-        while (!hashes.isEmpty()) {
-            var first = hashes.poll();
-            next.add(sha256(first, hashes.isEmpty() ? first : hashes.poll()));
+        var root = merkleRoot(new ArrayList<>(hashes));
+        hashes.clear();
+        return new LinkedList<>(List.of(root));
+    }
+
+    /**
+     * The sibling hashes from leaf {@code index} up to the root, the same pairing {@link #merkleRoot} uses,
+     * so an odd last node is paired with itself.
+     */
+    public static Proof proof(List<byte[]> hashes, int index) {
+        if (index < 0 || index >= hashes.size()) throw new IndexOutOfBoundsException(index);
+        var siblings = new ArrayList<byte[]>();
+        var level = hashes;
+        for (var position = index; level.size() > 1; position >>>= 1) {
+            var sibling = position ^ 1;
+            siblings.add(level.get(sibling < level.size() ? sibling : position));
+            var next = new ArrayList<byte[]>((level.size() + 1) / 2);
+            for (var i = 0; i < level.size(); i += 2) {
+                next.add(Sha256.begin().put(level.get(i)).put(level.get(i + 1 < level.size() ? i + 1 : i)).digest());
+            }
+            level = next;
+        }
+        return new Proof(index, siblings);
+    }
+
+    /**
+     * Proves a leaf is at {@code index} under a root with {@code siblings.size()} levels above it.
+     */
+    public record Proof(int index, List<byte[]> siblings) {
+        public byte[] root(byte[] leaf) {
+            var hash = leaf;
+            var position = index;
+            for (var sibling : siblings) {
+                hash = (position & 1) == 0
+                        ? Sha256.begin().put(hash).put(sibling).digest()
+                        : Sha256.begin().put(sibling).put(hash).digest();
+                position >>>= 1;
+            }
+            return hash;
         }
-        return iterate(next);
     }
 }
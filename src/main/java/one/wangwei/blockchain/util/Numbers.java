@@ -10,4 +10,12 @@ public final class Numbers {
     public static byte[] toBytes(int val) {
         return ByteBuffer.allocate(Integer.BYTES).putInt(val).array();
     }
+
+    public static int toInt(byte[] bytes, int offset) {
+        return ByteBuffer.wrap(bytes, offset, Integer.BYTES).getInt();
+    }
+
+    public static long toLong(byte[] bytes, int offset) {
+        return ByteBuffer.wrap(bytes, offset, Long.BYTES).getLong();
+    }
 }
@@ -1,5 +1,6 @@
 package one.wangwei.blockchain.util;
 
+import com.esotericsoftware.kryo.io.ByteBufferInput;
 import com.esotericsoftware.kryo.io.Input;
 import com.esotericsoftware.kryo.io.Output;
 import com.esotericsoftware.kryo.serializers.JavaSerializer;
@@ -12,6 +13,7 @@ import org.objenesis.strategy.StdInstantiatorStrategy;
 
 import javax.crypto.SealedObject;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.time.Instant;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -39,16 +41,27 @@ public class ObjectMapper {
             kryo.register(Transaction[].class);
             kryo.register(Transaction.Id.class);
             kryo.register(TreeMap.class, new JavaSerializer());
-            kryo.register(one.wangwei.blockchain.transaction.Input.class);
+            // inputs stored before they had a version keep this id, see InputSerializer
+            kryo.register(one.wangwei.blockchain.transaction.Input.class, new InputSerializer(kryo, true), kryo.getNextRegistrationId());
             kryo.register(one.wangwei.blockchain.transaction.Input[].class);
             kryo.register(one.wangwei.blockchain.transaction.Output.class);
             kryo.register(one.wangwei.blockchain.transaction.Output[].class);
             kryo.register(byte[].class);
+            kryo.register(one.wangwei.blockchain.wallet.SignatureScheme.class);
+            kryo.register(Block.Header.class);
+            // a second id for the same class, the one inputs are written under from now on
+            kryo.register(one.wangwei.blockchain.transaction.Input.class, new InputSerializer(kryo, false), kryo.getNextRegistrationId());
 
             return kryo;
         }
     };
 
+    private static final int OUTPUT_SIZE = 4096;
+    private static final int MAX_RETAINED_OUTPUT_SIZE = 1024 * 1024;
+
+    // one growable buffer per thread instead of a fresh 4 KiB one, and its growth steps, per call
+    private static final ThreadLocal<Output> outputs = ThreadLocal.withInitial(() -> new Output(OUTPUT_SIZE, -1));
+
     public <T> T deserialize(byte[] bytes, Class<T> type) {
         try (
                 var input = new Input(bytes);
@@ -67,13 +80,27 @@ public class ObjectMapper {
         }
     }
 
-    public byte[] serialize(Object object) {
+    /**
+     * Reads straight from the buffer's remaining bytes, which may be direct memory filled by RocksDB,
+     * without copying them into a heap array first.
+     */
+    public <T> T deserialize(ByteBuffer bytes, Class<T> type) {
         try (
-                var output = new Output(4096, -1);
+                var input = new ByteBufferInput(bytes);
                 var mapper = pool.obtain()
         ) {
+            return mapper.readObject(input, type);
+        }
+    }
+
+    public byte[] serialize(Object object) {
+        var output = outputs.get();
+        output.reset();
+        try (var mapper = pool.obtain()) {
             mapper.writeObject(output, object);
             return output.toBytes();
+        } finally {
+            if (output.getBuffer().length > MAX_RETAINED_OUTPUT_SIZE) outputs.remove();
         }
     }
 }
@@ -0,0 +1,164 @@
+package one.wangwei.blockchain.util;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+
+/**
+ * Open-addressing hash table from (32-byte id, int index) to a long, laid out in two flat long arrays.
+ * An entry costs six longs per slot instead of an id object, its array and a boxed map entry.
+ * Ids are SHA-256 digests, so hashing their first word together with the index is enough.
+ */
+public final class OutpointTable {
+    private static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+    private static final int ID_BYTES = 32;
+    private static final int KEY_WORDS = 5;
+
+    private long[] keys;
+    private long[] values;
+    private int mask;
+    private int size;
+
+    public OutpointTable() {
+        this(16);
+    }
+
+    public OutpointTable(int expected) {
+        // smallest power of two that holds the expected entries below the 3/4 load factor
+        var minimum = Math.max(4, (int) Math.ceil(expected * 4 / 3.0));
+        allocate(Integer.highestOneBit(minimum - 1) << 1);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Heap bytes held by the table's arrays.
+     */
+    public long bytes() {
+        return 8L * (keys.length + values.length);
+    }
+
+    public boolean contains(byte[] id, int index) {
+        return find(id, index) >= 0;
+    }
+
+    public long get(byte[] id, int index, long missing) {
+        var slot = find(id, index);
+        return slot < 0 ? missing : values[slot];
+    }
+
+    /**
+     * Returns true if the outpoint was not present before.
+     */
+    public boolean put(byte[] id, int index, long value) {
+        checkId(id);
+        if ((size + 1) * 4L > (mask + 1) * 3L) resize();
+        var tag = tag(index);
+        for (var slot = hash(id, index) & mask; ; slot = (slot + 1) & mask) {
+            var base = slot * KEY_WORDS;
+            if (keys[base + 4] == 0) {
+                for (var i = 0; i < 4; i++) keys[base + i] = word(id, i);
+                keys[base + 4] = tag;
+                values[slot] = value;
+                size++;
+                return true;
+            }
+            if (matches(base, id, tag)) {
+                values[slot] = value;
+                return false;
+            }
+        }
+    }
+
+    public boolean remove(byte[] id, int index) {
+        var slot = find(id, index);
+        if (slot < 0) return false;
+        // backward shift deletion keeps every probe chain intact without tombstones
+        var hole = slot;
+        for (var next = (hole + 1) & mask; keys[next * KEY_WORDS + 4] != 0; next = (next + 1) & mask) {
+            var home = hash(next) & mask;
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                System.arraycopy(keys, next * KEY_WORDS, keys, hole * KEY_WORDS, KEY_WORDS);
+                values[hole] = values[next];
+                hole = next;
+            }
+        }
+        keys[hole * KEY_WORDS + 4] = 0;
+        size--;
+        return true;
+    }
+
+    private int find(byte[] id, int index) {
+        checkId(id);
+        var tag = tag(index);
+        for (var slot = hash(id, index) & mask; ; slot = (slot + 1) & mask) {
+            var base = slot * KEY_WORDS;
+            if (keys[base + 4] == 0) return -1;
+            if (matches(base, id, tag)) return slot;
+        }
+    }
+
+    private boolean matches(int base, byte[] id, long tag) {
+        return keys[base + 4] == tag
+                && keys[base] == word(id, 0)
+                && keys[base + 1] == word(id, 1)
+                && keys[base + 2] == word(id, 2)
+                && keys[base + 3] == word(id, 3);
+    }
+
+    private void resize() {
+        var oldKeys = keys;
+        var oldValues = values;
+        allocate((mask + 1) * 2);
+        for (var slot = 0; slot < oldValues.length; slot++) {
+            var base = slot * KEY_WORDS;
+            if (oldKeys[base + 4] == 0) continue;
+            var target = mix(oldKeys[base], oldKeys[base + 4]) & mask;
+            while (keys[target * KEY_WORDS + 4] != 0) target = (target + 1) & mask;
+            System.arraycopy(oldKeys, base, keys, target * KEY_WORDS, KEY_WORDS);
+            values[target] = oldValues[slot];
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity * KEY_WORDS];
+        values = new long[capacity];
+        mask = capacity - 1;
+    }
+
+    private int hash(int slot) {
+        var base = slot * KEY_WORDS;
+        return mix(keys[base], keys[base + 4]);
+    }
+
+    private static int hash(byte[] id, int index) {
+        return mix(word(id, 0), tag(index));
+    }
+
+    private static int mix(long first, long tag) {
+        var h = first ^ tag * 0x9E3779B97F4A7C15L;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return (int) h;
+    }
+
+    // never zero, so a zero tag marks an empty slot
+    private static long tag(int index) {
+        return (index & 0xffffffffL) << 1 | 1;
+    }
+
+    private static long word(byte[] id, int i) {
+        return (long) LONGS.get(id, i * Long.BYTES);
+    }
+
+    private static void checkId(byte[] id) {
+        if (id.length != ID_BYTES) throw new IllegalArgumentException("expected a %s byte id".formatted(ID_BYTES));
+    }
+}
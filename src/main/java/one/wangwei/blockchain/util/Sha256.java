@@ -0,0 +1,106 @@
+package one.wangwei.blockchain.util;
+
+import java.nio.ByteBuffer;
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.NoSuchProviderException;
+
+/**
+ * Incremental SHA-256 that feeds slices, buffers and primitives straight into a per thread digest and
+ * can write the result into the caller's array, so hashing a structure allocates nothing but its result.
+ * <pre>{@code Sha256.begin().put(id).putInt(index).digest()}</pre>
+ * A hash started while another is in progress on the same thread gets its own digest, which then becomes
+ * the thread's, so one left unfinished by an exception costs a single allocation rather than one per hash.
+ */
+public final class Sha256 {
+    public static final int BYTES = 32;
+
+    private static final ThreadLocal<Sha256> local = ThreadLocal.withInitial(Sha256::new);
+
+    private final MessageDigest digest;
+    private final byte[] scratch = new byte[Long.BYTES];
+    private boolean busy;
+
+    private Sha256() {
+        try {
+            digest = MessageDigest.getInstance("SHA256", "SUN");
+        } catch (NoSuchAlgorithmException | NoSuchProviderException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public static Sha256 begin() {
+        var sha = local.get();
+        // nested, or abandoned midway; whoever still holds the busy one finishes it on their own
+        if (sha.busy) local.set(sha = new Sha256());
+        else sha.digest.reset();
+        sha.busy = true;
+        return sha;
+    }
+
+    /**
+     * Null is hashed as no bytes at all.
+     */
+    public Sha256 put(byte[] bytes) {
+        if (bytes != null) digest.update(bytes);
+        return this;
+    }
+
+    public Sha256 put(byte[] bytes, int offset, int length) {
+        digest.update(bytes, offset, length);
+        return this;
+    }
+
+    /**
+     * Consumes the buffer's remaining bytes.
+     */
+    public Sha256 put(ByteBuffer buffer) {
+        digest.update(buffer);
+        return this;
+    }
+
+    public Sha256 put(byte value) {
+        digest.update(value);
+        return this;
+    }
+
+    /**
+     * Big-endian, the same bytes as {@link Numbers#toBytes(int)}.
+     */
+    public Sha256 putInt(int value) {
+        for (var i = 0; i < Integer.BYTES; i++) scratch[i] = (byte) (value >>> (24 - 8 * i));
+        digest.update(scratch, 0, Integer.BYTES);
+        return this;
+    }
+
+    /**
+     * Big-endian, the same bytes as {@link Numbers#toBytes(long)}.
+     */
+    public Sha256 putLong(long value) {
+        for (var i = 0; i < Long.BYTES; i++) scratch[i] = (byte) (value >>> (56 - 8 * i));
+        digest.update(scratch, 0, Long.BYTES);
+        return this;
+    }
+
+    public byte[] digest() {
+        try {
+            return digest.digest();
+        } finally {
+            busy = false;
+        }
+    }
+
+    /**
+     * Writes the {@link #BYTES} byte digest into {@code out} at {@code offset}.
+     */
+    public void digest(byte[] out, int offset) {
+        try {
+            digest.digest(out, offset, BYTES);
+        } catch (DigestException e) {
+            throw new IllegalArgumentException("no room for a digest at %s".formatted(offset), e);
+        } finally {
+            busy = false;
+        }
+    }
+}
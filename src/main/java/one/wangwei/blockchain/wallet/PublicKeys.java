@@ -0,0 +1,139 @@
+package one.wangwei.blockchain.wallet;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.security.AlgorithmParameters;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.NoSuchAlgorithmException;
+import java.security.NoSuchProviderException;
+import java.security.PublicKey;
+import java.security.interfaces.ECPublicKey;
+import java.security.spec.ECFieldFp;
+import java.security.spec.ECParameterSpec;
+import java.security.spec.ECPoint;
+import java.security.spec.ECPublicKeySpec;
+import java.security.spec.InvalidKeySpecException;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The two forms an input may carry an EC public key in: X.509, a DER sequence and what every input held
+ * at first, and the SEC1 compressed point, a 0x02 or 0x03 parity byte followed by the x coordinate.
+ * The first byte tells them apart, so inputs of both forms verify side by side. Addresses stay the hash
+ * of the X.509 form. Decoded keys are cached, bounded and least recently used, since a key that spent
+ * once is likely to spend again.
+ */
+final class PublicKeys {
+    static final boolean COMPRESS = Boolean.parseBoolean(System.getProperty("blockchain.compressKeys", "true"));
+    private static final int CAPACITY = Integer.getInteger("blockchain.keyCacheSize", 16_384);
+    private static final int STRIPES = 16;
+
+    private static final Stripe[] stripes = new Stripe[STRIPES];
+    private static final Map<SignatureScheme, ECParameterSpec> curves = new EnumMap<>(SignatureScheme.class);
+
+    static {
+        for (var i = 0; i < STRIPES; i++) stripes[i] = new Stripe(Math.max(1, CAPACITY / STRIPES));
+    }
+
+    private PublicKeys() {
+    }
+
+    static byte[] compress(ECPublicKey key) {
+        var point = key.getW();
+        var size = fieldSize(key.getParams());
+        var x = point.getAffineX().toByteArray();
+        var length = Math.min(x.length, size);
+        var result = new byte[1 + size];
+        result[0] = (byte) (point.getAffineY().testBit(0) ? 3 : 2);
+        System.arraycopy(x, x.length - length, result, result.length - length, length);
+        return result;
+    }
+
+    static boolean isCompressed(byte[] encoded) {
+        return encoded.length > 0 && (encoded[0] == 2 || encoded[0] == 3);
+    }
+
+    static Decoded decode(SignatureScheme scheme, byte[] encoded) throws NoSuchAlgorithmException, NoSuchProviderException, InvalidKeySpecException {
+        var key = new Key(scheme, ByteBuffer.wrap(encoded));
+        var stripe = stripes[(key.hashCode() & 0x7fffffff) % STRIPES];
+        var decoded = stripe.get(key);
+        if (decoded != null) return decoded;
+
+        var factory = scheme.keyFactory();
+        if (isCompressed(encoded)) {
+            var curve = curve(scheme);
+            var publicKey = factory.generatePublic(new ECPublicKeySpec(decompress(curve, encoded), curve));
+            decoded = new Decoded(publicKey, publicKey.getEncoded());
+        } else {
+            decoded = new Decoded(factory.generatePublic(new X509EncodedKeySpec(encoded)), encoded.clone());
+        }
+        stripe.put(new Key(scheme, ByteBuffer.wrap(encoded.clone())), decoded);
+        return decoded;
+    }
+
+    private static ECPoint decompress(ECParameterSpec curve, byte[] encoded) throws InvalidKeySpecException {
+        var p = ((ECFieldFp) curve.getCurve().getField()).getP();
+        if (encoded.length != 1 + fieldSize(curve)) throw new InvalidKeySpecException("Compressed point has wrong length");
+        var x = new BigInteger(1, encoded, 1, encoded.length - 1);
+        if (x.compareTo(p) >= 0) throw new InvalidKeySpecException("Compressed point is out of the field");
+
+        // y^2 = x^3 + ax + b, and with p = 3 (mod 4) a square root of r is r^((p + 1) / 4)
+        var rhs = x.pow(3).add(curve.getCurve().getA().multiply(x)).add(curve.getCurve().getB()).mod(p);
+        var y = rhs.modPow(p.add(BigInteger.ONE).shiftRight(2), p);
+        if (!y.multiply(y).mod(p).equals(rhs)) throw new InvalidKeySpecException("Compressed point is not on the curve");
+        if (y.testBit(0) != (encoded[0] == 3)) y = p.subtract(y);
+        return new ECPoint(x, y);
+    }
+
+    private static ECParameterSpec curve(SignatureScheme scheme) {
+        synchronized (curves) {
+            return curves.computeIfAbsent(scheme, x -> {
+                try {
+                    var parameters = AlgorithmParameters.getInstance(x.keyAlgorithm(), x.provider());
+                    parameters.init(x.parameters());
+                    var curve = parameters.getParameterSpec(ECParameterSpec.class);
+                    if (!((ECFieldFp) curve.getCurve().getField()).getP().testBit(1)) {
+                        throw new IllegalStateException("Fail to decompress points of " + x + " !");
+                    }
+                    return curve;
+                } catch (GeneralSecurityException e) {
+                    throw new RuntimeException("Fail to get curve of " + x + " !", e);
+                }
+            });
+        }
+    }
+
+    private static int fieldSize(ECParameterSpec curve) {
+        return (curve.getCurve().getField().getFieldSize() + 7) / 8;
+    }
+
+    record Decoded(PublicKey key, byte[] x509) {
+    }
+
+    private record Key(SignatureScheme scheme, ByteBuffer encoded) {
+    }
+
+    private static class Stripe {
+        private final Map<Key, Decoded> entries;
+
+        private Stripe(int capacity) {
+            this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Key, Decoded> eldest) {
+                    return size() > capacity;
+                }
+            };
+        }
+
+        private synchronized Decoded get(Key key) {
+            return entries.get(key);
+        }
+
+        private synchronized void put(Key key, Decoded decoded) {
+            entries.put(key, decoded);
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package one.wangwei.blockchain.wallet;
+
+import one.wangwei.blockchain.util.BtcAddressUtils;
+
+import java.security.*;
+import java.security.interfaces.ECPublicKey;
+import java.security.spec.AlgorithmParameterSpec;
+import java.security.spec.ECGenParameterSpec;
+import java.security.spec.InvalidKeySpecException;
+import java.security.spec.NamedParameterSpec;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+
+public enum SignatureScheme {
+    Secp521r1((byte) 0, "EC", "SunEC", new ECGenParameterSpec("secp521r1"), "SHA256withECDSA"),
+    Secp256k1((byte) 1, "EC", "BC", new ECGenParameterSpec("secp256k1"), "SHA256withECDSA"),
+    Ed25519((byte) 2, "Ed25519", "SunEC", NamedParameterSpec.ED25519, "Ed25519");
+
+    private final byte value;
+    private final String keyAlgorithm;
+    private final String provider;
+    private final AlgorithmParameterSpec parameters;
+    private final String signatureAlgorithm;
+
+    SignatureScheme(byte value, String keyAlgorithm, String provider, AlgorithmParameterSpec parameters, String signatureAlgorithm) {
+        this.value = value;
+        this.keyAlgorithm = keyAlgorithm;
+        this.provider = provider;
+        this.parameters = parameters;
+        this.signatureAlgorithm = signatureAlgorithm;
+    }
+
+    public byte value() {
+        return value;
+    }
+
+    public static Optional<SignatureScheme> valueOf(byte code) {
+        return Arrays.stream(SignatureScheme.values()).filter(x -> x.value() == code).findFirst();
+    }
+
+    public KeyPairGenerator keyPairGenerator() {
+        try {
+            var generator = KeyPairGenerator.getInstance(keyAlgorithm, provider);
+            generator.initialize(parameters);
+            return generator;
+        } catch (NoSuchAlgorithmException | NoSuchProviderException | InvalidAlgorithmParameterException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * The form inputs carry the key in: the compressed point for EC keys unless
+     * {@code -Dblockchain.compressKeys=false}, X.509 otherwise.
+     */
+    public byte[] encodePublicKey(PublicKey key) {
+        return PublicKeys.COMPRESS && key instanceof ECPublicKey ec ? PublicKeys.compress(ec) : key.getEncoded();
+    }
+
+    /**
+     * Every form an input may carry the key in, whichever {@link #encodePublicKey} picks today.
+     */
+    public List<byte[]> publicKeyForms(PublicKey key) {
+        return key instanceof ECPublicKey ec ? List.of(key.getEncoded(), PublicKeys.compress(ec)) : List.of(key.getEncoded());
+    }
+
+    /**
+     * Decodes a key in any form {@link #encodePublicKey} produces, recently seen keys from a cache.
+     */
+    public PublicKey decodePublicKey(byte[] encoded) throws NoSuchAlgorithmException, NoSuchProviderException, InvalidKeySpecException {
+        return PublicKeys.decode(this, encoded).key();
+    }
+
+    /**
+     * The hash addresses are made of, always over the X.509 form of the key. Empty for a compressed
+     * point that does not decode, which no output can be locked to.
+     */
+    public Optional<byte[]> pubKeyHash(byte[] encoded) {
+        if (!PublicKeys.isCompressed(encoded)) return Optional.of(BtcAddressUtils.ripeMD160Hash(encoded));
+        try {
+            return Optional.of(BtcAddressUtils.ripeMD160Hash(PublicKeys.decode(this, encoded).x509()));
+        } catch (GeneralSecurityException e) {
+            return Optional.empty();
+        }
+    }
+
+    public KeyFactory keyFactory() throws NoSuchAlgorithmException, NoSuchProviderException {
+        return KeyFactory.getInstance(keyAlgorithm, provider);
+    }
+
+    String keyAlgorithm() {
+        return keyAlgorithm;
+    }
+
+    String provider() {
+        return provider;
+    }
+
+    AlgorithmParameterSpec parameters() {
+        return parameters;
+    }
+
+    public Signature signature() throws NoSuchAlgorithmException, NoSuchProviderException {
+        return Signature.getInstance(signatureAlgorithm, provider);
+    }
+}
@@ -2,28 +2,27 @@ package one.wangwei.blockchain.wallet;
 
 import java.io.Serializable;
 import java.nio.ByteBuffer;
-import java.security.*;
-import java.security.spec.ECGenParameterSpec;
+import java.security.PrivateKey;
+import java.security.PublicKey;
 
 import static one.wangwei.blockchain.util.BtcAddressUtils.checksum;
 import static one.wangwei.blockchain.util.BtcAddressUtils.ripeMD160Hash;
+import static one.wangwei.blockchain.wallet.SignatureScheme.Secp521r1;
 
 
-public record Wallet(Address.Version version, PrivateKey privateKey, PublicKey publicKey) implements Serializable {
-    private static final KeyPairGenerator generator;
-
-    static {
-        try {
-            generator = KeyPairGenerator.getInstance("EC", "SunEC");
-            generator.initialize(new ECGenParameterSpec("secp521r1"));
-        } catch (NoSuchAlgorithmException | NoSuchProviderException | InvalidAlgorithmParameterException e) {
-            throw new RuntimeException(e);
-        }
+public record Wallet(Address.Version version, SignatureScheme scheme, PrivateKey privateKey, PublicKey publicKey) implements Serializable {
+    public Wallet {
+        // wallets written before schemes were introduced deserialize without one
+        if (scheme == null) scheme = Secp521r1;
     }
 
     public static Wallet createWallet(Address.Version version) {
-        var pair = generator.generateKeyPair();
-        return new Wallet(version, pair.getPrivate(), pair.getPublic());
+        return createWallet(version, Secp521r1);
+    }
+
+    public static Wallet createWallet(Address.Version version, SignatureScheme scheme) {
+        var pair = scheme.keyPairGenerator().generateKeyPair();
+        return new Wallet(version, scheme, pair.getPrivate(), pair.getPublic());
     }
 
     public Address getAddress() {
@@ -15,9 +15,11 @@ import java.security.InvalidKeyException;
 import java.security.Key;
 import java.security.NoSuchAlgorithmException;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.stream.IntStream;
 
 import static java.nio.file.Files.*;
 import static javax.crypto.Cipher.ENCRYPT_MODE;
@@ -27,39 +29,73 @@ public class WalletRepository {
     private static final Path WALLET_FILE = Path.of("wallet.dat");
     private final ObjectMapper serializer;
     private final Key key;
+    private final Path file;
 
     public WalletRepository(ObjectMapper serializer, Key key) {
+        this(serializer, key, WALLET_FILE);
+    }
+
+    public WalletRepository(ObjectMapper serializer, Key key, Path file) {
         this.serializer = serializer;
         this.key = key;
+        this.file = file;
     }
 
     public Set<Address> getAddresses() throws NoSuchAlgorithmException, IOException, InvalidKeyException, ClassNotFoundException {
         return load().orElseGet(HashMap::new).keySet();
     }
 
+    /**
+     * Every wallet, decrypted once rather than once per {@link #getWallet(Address)}.
+     */
+    public Map<Address, Wallet> getWallets() throws NoSuchAlgorithmException, IOException, InvalidKeyException, ClassNotFoundException {
+        return load().orElseGet(HashMap::new);
+    }
+
     public Wallet getWallet(Address address) throws NoSuchAlgorithmException, IOException, InvalidKeyException, ClassNotFoundException {
         return load().orElseGet(HashMap::new).get(address);
     }
 
     public Wallet createWallet() throws NoSuchAlgorithmException, NoSuchPaddingException, IllegalBlockSizeException, IOException, InvalidKeyException, ClassNotFoundException {
-        var wallet = Wallet.createWallet(Prod);
+        return createWallet(SignatureScheme.Secp521r1);
+    }
+
+    public Wallet createWallet(SignatureScheme scheme) throws NoSuchAlgorithmException, NoSuchPaddingException, IllegalBlockSizeException, IOException, InvalidKeyException, ClassNotFoundException {
+        var wallet = Wallet.createWallet(Prod, scheme);
         var wallets = load().orElseGet(HashMap::new);
         wallets.put(wallet.getAddress(), wallet);
         save(wallets);
         return wallet;
     }
 
+    /**
+     * Generates the key pairs in parallel with one generator per thread, then loads, encrypts and writes
+     * the wallet file once for the whole batch instead of once per wallet.
+     */
+    public List<Wallet> createWallets(SignatureScheme scheme, int count) throws NoSuchAlgorithmException, NoSuchPaddingException, IllegalBlockSizeException, IOException, InvalidKeyException, ClassNotFoundException {
+        var generators = ThreadLocal.withInitial(scheme::keyPairGenerator);
+        var created = IntStream.range(0, count)
+                .parallel()
+                .mapToObj(i -> generators.get().generateKeyPair())
+                .map(pair -> new Wallet(Prod, scheme, pair.getPrivate(), pair.getPublic()))
+                .toList();
+        var wallets = load().orElseGet(HashMap::new);
+        created.forEach(x -> wallets.put(x.getAddress(), x));
+        save(wallets);
+        return created;
+    }
+
     private <T extends Map<Address, Wallet> & Serializable> void save(T wallets) throws NoSuchPaddingException, NoSuchAlgorithmException, InvalidKeyException, IOException, IllegalBlockSizeException {
         var cipher = Cipher.getInstance(key.getAlgorithm());
         cipher.init(ENCRYPT_MODE, key);
-        try (var stream = new BufferedOutputStream(newOutputStream(WALLET_FILE))) {
+        try (var stream = new BufferedOutputStream(newOutputStream(file))) {
             stream.write(serializer.serialize(new SealedObject(wallets, cipher)));
         }
     }
 
     private <T extends Map<Address, Wallet> & Serializable> Optional<T> load() throws NoSuchAlgorithmException, InvalidKeyException, IOException, ClassNotFoundException {
-        if (!exists(WALLET_FILE)) return Optional.empty();
-        try (var stream = new BufferedInputStream(newInputStream(WALLET_FILE))) {
+        if (!exists(file)) return Optional.empty();
+        try (var stream = new BufferedInputStream(newInputStream(file))) {
             var sealedObject = serializer.deserialize(stream, SealedObject.class);
             return Optional.of((T) sealedObject.getObject(key));
         }
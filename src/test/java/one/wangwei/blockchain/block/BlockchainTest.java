@@ -0,0 +1,119 @@
+package one.wangwei.blockchain.block;
+
+import one.wangwei.blockchain.store.RocksDbBlockRepository;
+import one.wangwei.blockchain.transaction.OutputReference;
+import one.wangwei.blockchain.transaction.Transaction;
+import one.wangwei.blockchain.util.ObjectMapper;
+import one.wangwei.blockchain.wallet.Wallet;
+import one.wangwei.blockchain.wallet.WalletRepository;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.file.Path;
+import java.security.Security;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+public class BlockchainTest {
+    static {
+        Security.addProvider(new BouncyCastleProvider());
+    }
+
+    @TempDir
+    Path dir;
+
+    @Test
+    public void shouldScanUnspentOfManyWallets() throws Exception {
+        var serializer = new ObjectMapper();
+        var wallets = new WalletRepository(serializer, new SecretKeySpec(new byte[32], "AES"), dir.resolve("wallet.dat"));
+        var a = wallets.createWallet();
+        var b = wallets.createWallet();
+        var c = wallets.createWallet();
+        try (var storage = new RocksDbBlockRepository(serializer, dir.resolve("blockchain.db").toString())) {
+            var chain = Blockchain.createBlockchain(storage, a.getAddress());
+            chain.mineBlock(new Transaction[]{Transaction.createTransaction(a.getAddress(), b.getAddress(), 4, chain, wallets)}).orElseThrow();
+            chain.mineBlock(new Transaction[]{Transaction.createTransaction(b.getAddress(), c.getAddress(), 3, chain, wallets)}).orElseThrow();
+
+            var all = chain.getUnspent(List.of(a, b, c));
+            Assertions.assertEquals(List.of(a.getAddress(), b.getAddress(), c.getAddress()), List.copyOf(all.keySet()));
+            Assertions.assertEquals(List.of(6), values(all.get(a.getAddress())));
+            Assertions.assertEquals(List.of(1), values(all.get(b.getAddress())));
+            Assertions.assertEquals(List.of(3), values(all.get(c.getAddress())));
+            for (var wallet : List.of(a, b, c)) {
+                Assertions.assertEquals(outpoints(chain, wallet), all.get(wallet.getAddress()).stream().map(BlockchainTest::outpoint).collect(Collectors.toSet()));
+            }
+
+            // a wallet alone sees the same outputs, the others play no part
+            Assertions.assertEquals(outpoints(chain, b), chain.getUnspent(List.of(b)).get(b.getAddress()).stream().map(BlockchainTest::outpoint).collect(Collectors.toSet()));
+            Assertions.assertTrue(chain.getUnspent(List.of()).isEmpty());
+        }
+    }
+
+    @Test
+    public void shouldReportStatsOverHeights() throws Exception {
+        var serializer = new ObjectMapper();
+        var wallets = new WalletRepository(serializer, new SecretKeySpec(new byte[32], "AES"), dir.resolve("wallet.dat"));
+        var a = wallets.createWallet();
+        var b = wallets.createWallet();
+        try (var storage = new RocksDbBlockRepository(serializer, dir.resolve("blockchain.db").toString())) {
+            var chain = Blockchain.createBlockchain(storage, a.getAddress());
+            chain.mineBlock(new Transaction[]{Transaction.createTransaction(a.getAddress(), b.getAddress(), 4, chain, wallets)}).orElseThrow();
+            chain.mineBlock(new Transaction[]{Transaction.createTransaction(b.getAddress(), a.getAddress(), 3, chain, wallets)}).orElseThrow();
+            var top = chain.height().orElseThrow();
+            List<Block> blocks;
+            try (var range = chain.range(0, top)) {
+                blocks = range.toList();
+            }
+
+            // from the genesis block, which has nothing before it to subtract
+            var genesis = chain.stats(0, 0).orElseThrow();
+            Assertions.assertEquals(1, genesis.blocks());
+            Assertions.assertEquals(1, genesis.transactions());
+            // a coinbase spends nothing
+            Assertions.assertEquals(0, genesis.inputs());
+            Assertions.assertEquals(blocks.get(0).transactions()[0].outputs()[0].value(), genesis.issued());
+            Assertions.assertEquals(Duration.ZERO, genesis.averageBlockTime());
+
+            var all = chain.stats(0, top).orElseThrow();
+            Assertions.assertEquals(blocks.size(), all.blocks());
+            Assertions.assertEquals(blocks.stream().mapToLong(x -> x.transactions().length).sum(), all.transactions());
+            Assertions.assertEquals(blocks.stream().flatMap(x -> Arrays.stream(x.transactions())).filter(x -> !x.isCoinbase()).mapToLong(x -> x.inputs().length).sum(), all.inputs());
+            Assertions.assertEquals(blocks.stream().flatMap(x -> Arrays.stream(x.transactions())).mapToLong(x -> x.outputs().length).sum(), all.outputs());
+            Assertions.assertEquals(genesis.issued(), all.issued());
+            var elapsed = blocks.get(blocks.size() - 1).timeStamp().toEpochMilli() - blocks.get(0).timeStamp().toEpochMilli();
+            Assertions.assertEquals(Duration.ofMillis(elapsed / (blocks.size() - 1)), all.averageBlockTime());
+
+            // a single block in the middle, and ranges adding up to the whole
+            var middle = chain.stats(1, 1).orElseThrow();
+            Assertions.assertEquals(new ChainStats(1, 1, 1, 1, blocks.get(1).transactions()[0].inputs().length, blocks.get(1).transactions()[0].outputs().length, 0, middle.bytes(), Duration.ZERO), middle);
+            Assertions.assertTrue(middle.bytes() > 0);
+            Assertions.assertEquals(all.bytes(), genesis.bytes() + chain.stats(1, top).orElseThrow().bytes());
+
+            // heights outside 0..height()
+            Assertions.assertTrue(chain.stats(top + 1, top + 1).isEmpty());
+            Assertions.assertTrue(chain.stats(0, top + 1).isEmpty());
+            Assertions.assertTrue(chain.stats(-1, top).isEmpty());
+            Assertions.assertTrue(chain.stats(top, 0).isEmpty());
+        }
+    }
+
+    private static List<Integer> values(List<OutputReference> unspent) {
+        return unspent.stream().map(x -> x.output().value()).sorted().toList();
+    }
+
+    private static Set<String> outpoints(Blockchain chain, Wallet wallet) {
+        try (var unspent = chain.getUnspent(wallet)) {
+            return unspent.map(BlockchainTest::outpoint).collect(Collectors.toSet());
+        }
+    }
+
+    private static String outpoint(OutputReference x) {
+        return x.txId() + ":" + x.index();
+    }
+}
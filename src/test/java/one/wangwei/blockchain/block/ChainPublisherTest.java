@@ -0,0 +1,157 @@
+package one.wangwei.blockchain.block;
+
+import one.wangwei.blockchain.store.Durability;
+import one.wangwei.blockchain.store.RocksDbBlockRepository;
+import one.wangwei.blockchain.transaction.Transaction;
+import one.wangwei.blockchain.util.ObjectMapper;
+import one.wangwei.blockchain.wallet.Wallet;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.security.Security;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static one.wangwei.blockchain.wallet.Address.Version.Prod;
+
+public class ChainPublisherTest {
+    static {
+        Security.addProvider(new BouncyCastleProvider());
+    }
+
+    private static final Random random = new Random();
+
+    @TempDir
+    Path dir;
+
+    // signalled on the publisher's executor, where a failed assertion would go unnoticed
+    private final Queue<Throwable> errors = new ConcurrentLinkedQueue<>();
+
+    @AfterEach
+    public void failOnSubscriberError() {
+        var error = errors.peek();
+        if (error != null) Assertions.fail("subscriber got onError", error);
+    }
+
+    @Test
+    public void shouldResumeAfterBlockAndFollowTip() throws Exception {
+        try (var storage = new RocksDbBlockRepository(new ObjectMapper(), dir.toString())) {
+            var genesis = block(Block.Id.Null);
+            var first = block(genesis.id());
+            var second = block(first.id());
+            for (var x : List.of(genesis, first, second)) storage.append(x);
+            var chain = new Blockchain(storage);
+            var received = new LinkedBlockingQueue<Block>();
+            var executor = Executors.newSingleThreadExecutor();
+            var subscription = subscribe(chain.blocks(genesis.id(), executor), received);
+
+            subscription.request(1);
+            Assertions.assertEquals(first.id(), next(received).id());
+            Assertions.assertNull(received.poll(100, MILLISECONDS));
+
+            subscription.request(Long.MAX_VALUE);
+            Assertions.assertEquals(second.id(), next(received).id());
+
+            var coinbase = Transaction.createCoinbaseTX(Wallet.createWallet(Prod).getAddress(), "");
+            var mined = chain.mineBlock(new Transaction[]{coinbase}).orElseThrow();
+            Assertions.assertEquals(mined.id(), next(received).id());
+            Assertions.assertTrue(received.isEmpty());
+
+            subscription.cancel();
+            executor.shutdown();
+            Assertions.assertTrue(executor.awaitTermination(5, SECONDS));
+        }
+    }
+
+    @Test
+    public void shouldReadOnlyWhatWasRequested() throws Exception {
+        var reads = new AtomicInteger();
+        try (var storage = new RocksDbBlockRepository(new ObjectMapper(), dir.toString()) {
+            @Override
+            public Optional<Block> findById(Block.Id id) {
+                reads.incrementAndGet();
+                return super.findById(id);
+            }
+
+            @Override
+            public View snapshot() {
+                throw new AssertionError("the whole chain is walked");
+            }
+        }) {
+            var blocks = new ArrayList<Block>();
+            var previous = Block.Id.Null;
+            for (var i = 0; i < 50; i++) {
+                var block = block(previous);
+                blocks.add(block);
+                previous = block.id();
+            }
+            storage.appendAll(blocks, Durability.Async);
+            var chain = new Blockchain(storage);
+            var received = new LinkedBlockingQueue<Block>();
+            var subscription = subscribe(chain.blocks(Block.Id.Null, Runnable::run), received);
+
+            Assertions.assertEquals(0, reads.get());
+            subscription.request(2);
+            Assertions.assertEquals(List.of(blocks.get(0).id(), blocks.get(1).id()), received.stream().map(Block::id).toList());
+            Assertions.assertEquals(2, reads.get());
+            subscription.request(3);
+            Assertions.assertEquals(5, received.size());
+            Assertions.assertEquals(blocks.get(4).id(), List.copyOf(received).get(4).id());
+            Assertions.assertEquals(5, reads.get());
+            subscription.cancel();
+        }
+    }
+
+    private <T> T next(BlockingQueue<T> received) throws InterruptedException {
+        var item = received.poll(5, SECONDS);
+        if (item == null) Assertions.fail("nothing received", errors.peek());
+        return item;
+    }
+
+    private <T> Flow.Subscription subscribe(Flow.Publisher<T> publisher, BlockingQueue<T> received) {
+        var result = new LinkedBlockingQueue<Flow.Subscription>();
+        publisher.subscribe(new Flow.Subscriber<>() {
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                result.add(subscription);
+            }
+
+            @Override
+            public void onNext(T item) {
+                received.add(item);
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                errors.add(throwable);
+            }
+
+            @Override
+            public void onComplete() {
+            }
+        });
+        return result.remove();
+    }
+
+    private static Block block(Block.Id previousId) {
+        var id = new byte[32];
+        random.nextBytes(id);
+        return new Block(new Block.Id(id), previousId, new Transaction[0], Instant.now(), 0);
+    }
+}
@@ -0,0 +1,118 @@
+package one.wangwei.blockchain.block;
+
+import one.wangwei.blockchain.load.LoadGenerator;
+import one.wangwei.blockchain.pow.Pow;
+import one.wangwei.blockchain.store.RocksDbBlockRepository;
+import one.wangwei.blockchain.transaction.Input;
+import one.wangwei.blockchain.transaction.Output;
+import one.wangwei.blockchain.transaction.OutputReference;
+import one.wangwei.blockchain.transaction.Transaction;
+import one.wangwei.blockchain.util.ObjectMapper;
+import one.wangwei.blockchain.wallet.WalletRepository;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.file.Path;
+import java.security.Security;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Optional;
+
+public class ChainValidatorTest {
+    static {
+        Security.addProvider(new BouncyCastleProvider());
+    }
+
+    @TempDir
+    Path dir;
+
+    @Test
+    public void shouldSkipSignaturesUpToCheckpoint() throws Exception {
+        var serializer = new ObjectMapper();
+        var key = new SecretKeySpec(new byte[32], "AES");
+        new LoadGenerator(serializer, key, dir, 3, 12, 2).run();
+        try (var storage = new RocksDbBlockRepository(serializer, dir.resolve("blockchain.db").toString())) {
+            var chain = new Blockchain(storage);
+            var full = new ChainValidator(Block.Id.Null).validate(chain);
+            Assertions.assertEquals(chain.height().orElseThrow() + 1, full.blocks());
+            Assertions.assertEquals(0, full.signaturesSkipped());
+            Assertions.assertTrue(full.signaturesVerified() >= 12);
+
+            var checkpoint = storage.findIdByHeight(chain.height().orElseThrow() - 3).orElseThrow();
+            var assumed = new ChainValidator(checkpoint).validate(chain);
+            Assertions.assertEquals(full.blocks(), assumed.blocks());
+            Assertions.assertEquals(full.signaturesVerified(), assumed.signaturesVerified() + assumed.signaturesSkipped());
+            Assertions.assertTrue(assumed.signaturesSkipped() > 0);
+            Assertions.assertEquals(Optional.of(chain.height().orElseThrow() - 3), chain.heightOf(checkpoint));
+            // a mistyped checkpoint must not silently turn into a full verification
+            var unknown = new Block.Id(checkpoint.value().clone());
+            unknown.value()[0] ^= 1;
+            Assertions.assertThrows(IllegalArgumentException.class, () -> new ChainValidator(unknown).validate(chain));
+
+            var blocks = new ArrayList<Block>();
+            try (var range = chain.range(0, chain.height().orElseThrow())) {
+                range.forEach(blocks::add);
+            }
+            Collections.swap(blocks, 1, 2);
+            Assertions.assertThrows(IllegalStateException.class, () -> new ChainValidator(checkpoint).validate(blocks.iterator(), Long.MAX_VALUE, Pow.TARGET_BITS));
+
+            // a compressed point beyond the field is reported like any other invalid spend
+            var wallets = new WalletRepository(serializer, key, dir.resolve("wallet.dat"));
+            var wallet = wallets.getWallets().values().iterator().next();
+            OutputReference unspent;
+            try (var outputs = chain.getUnspent(wallet)) {
+                unspent = outputs.findFirst().orElseThrow();
+            }
+            var undecodable = new byte[67];
+            Arrays.fill(undecodable, (byte) 0xff);
+            undecodable[0] = 0x02;
+            var input = new Input(unspent.txId(), unspent.index(), wallet.scheme(), new byte[0], undecodable);
+            var tx = new Transaction(null, new Input[]{input}, new Output[]{unspent.output()}, Instant.now());
+            tx.id(new Transaction.Id(tx.hash()));
+            Assertions.assertFalse(chain.verifyTransactions(tx));
+            storage.append(Pow.createBlock(storage.getLastBlockId().orElseThrow(), tx, Transaction.createCoinbaseTX(wallet.getAddress(), "")).orElseThrow());
+            var invalid = Assertions.assertThrows(IllegalStateException.class, () -> new ChainValidator(Block.Id.Null).validate(chain));
+            Assertions.assertTrue(invalid.getMessage().contains("undecodable key"), invalid.getMessage());
+        }
+    }
+
+    @Test
+    public void shouldRejectForgedIdsAndBadCoinbases() throws Exception {
+        var serializer = new ObjectMapper();
+        var key = new SecretKeySpec(new byte[32], "AES");
+        new LoadGenerator(serializer, key, dir, 2, 2, 1).run();
+        var wallets = new WalletRepository(serializer, key, dir.resolve("wallet.dat"));
+        var address = wallets.getAddresses().iterator().next();
+        try (var storage = new RocksDbBlockRepository(serializer, dir.resolve("blockchain.db").toString())) {
+            var chain = new Blockchain(storage);
+            var blocks = new ArrayList<Block>();
+            try (var range = chain.range(0, chain.height().orElseThrow())) {
+                range.forEach(blocks::add);
+            }
+            var tip = blocks.get(blocks.size() - 1).id();
+            Assertions.assertEquals(blocks.size(), new ChainValidator(Block.Id.Null).validate(blocks.iterator(), -1, Pow.TARGET_BITS).blocks());
+
+            var forged = Transaction.createCoinbaseTX(address, "");
+            forged.id(new Transaction.Id(Transaction.createCoinbaseTX(address, "other").hash()));
+            var overpaid = new Transaction(null, forged.inputs(), new Output[]{Output.newTXOutput(Transaction.SUBSIDY + 1, address)}, Instant.now());
+            overpaid.id(new Transaction.Id(overpaid.hash()));
+            var cases = new LinkedHashMap<String, Transaction[]>();
+            cases.put("not derived from it", new Transaction[]{forged});
+            cases.put("more than the subsidy", new Transaction[]{overpaid});
+            cases.put("has 2 coinbase transactions", new Transaction[]{Transaction.createCoinbaseTX(address, "a"), Transaction.createCoinbaseTX(address, "b")});
+            cases.put("has 0 coinbase transactions", new Transaction[0]);
+            for (var entry : cases.entrySet()) {
+                var invalid = new ArrayList<>(blocks);
+                invalid.add(Pow.createBlock(tip, entry.getValue()).orElseThrow());
+                var error = Assertions.assertThrows(IllegalStateException.class, () -> new ChainValidator(Block.Id.Null).validate(invalid.iterator(), -1, Pow.TARGET_BITS));
+                Assertions.assertTrue(error.getMessage().contains(entry.getKey()), error.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package one.wangwei.blockchain.block;
+
+import one.wangwei.blockchain.store.RocksDbBlockRepository;
+import one.wangwei.blockchain.transaction.Transaction;
+import one.wangwei.blockchain.util.MerkleRoot;
+import one.wangwei.blockchain.util.ObjectMapper;
+import one.wangwei.blockchain.wallet.Wallet;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.security.Security;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+
+import static one.wangwei.blockchain.wallet.Address.Version.Prod;
+
+public class LightClientTest {
+    static {
+        Security.addProvider(new BouncyCastleProvider());
+    }
+
+    @TempDir
+    Path dir;
+
+    @Test
+    public void shouldProveEveryLeaf() {
+        var random = new Random(42);
+        for (var size = 1; size <= 17; size++) {
+            var leaves = new ArrayList<byte[]>();
+            for (var i = 0; i < size; i++) {
+                var leaf = new byte[32];
+                random.nextBytes(leaf);
+                leaves.add(leaf);
+            }
+            var root = MerkleRoot.merkleRoot(new LinkedList<>(leaves));
+            for (var i = 0; i < size; i++) {
+                var proof = MerkleRoot.proof(leaves, i);
+                Assertions.assertArrayEquals(root, proof.root(leaves.get(i)));
+                if (size > 1) Assertions.assertFalse(Arrays.equals(root, proof.root(leaves.get((i + 1) % size))));
+            }
+        }
+    }
+
+    @Test
+    public void shouldVerifyPaymentsFromHeaders() throws Exception {
+        try (var storage = new RocksDbBlockRepository(new ObjectMapper(), dir.toString())) {
+            var address = Wallet.createWallet(Prod).getAddress();
+            var chain = Blockchain.createBlockchain(storage, address);
+            var mined = new ArrayList<Transaction>();
+            for (var block = 0; block < 3; block++) {
+                var transactions = new Transaction[block + 2];
+                for (var i = 0; i < transactions.length; i++) {
+                    transactions[i] = Transaction.createCoinbaseTX(address, "block %s tx %s".formatted(block, i));
+                }
+                chain.mineBlock(transactions).orElseThrow();
+                mined.addAll(List.of(transactions));
+            }
+
+            var client = new LightClient();
+            client.sync(chain);
+            Assertions.assertEquals(Optional.of(3L), client.height());
+            for (var tx : mined) {
+                Assertions.assertTrue(client.verify(tx.id(), chain.prove(tx.id()).orElseThrow()));
+            }
+
+            var first = chain.prove(mined.get(0).id()).orElseThrow();
+            var forged = new TransactionProof(first.blockId(), mined.get(1), first.proof());
+            Assertions.assertFalse(client.verify(mined.get(1).id(), forged));
+            Assertions.assertEquals(3, client.confirmations(mined.get(0).id(), first));
+            // a valid proof of another transaction than the one asked about
+            Assertions.assertEquals(0, client.confirmations(mined.get(1).id(), first));
+            // the proven hash, claiming the id of another transaction
+            var original = first.transaction();
+            var renamed = new Transaction(mined.get(1).id(), original.inputs(), original.outputs(), original.created());
+            Assertions.assertEquals(0, client.confirmations(mined.get(1).id(), new TransactionProof(first.blockId(), renamed, first.proof())));
+
+            chain.mineBlock(new Transaction[]{Transaction.createCoinbaseTX(address, "next")}).orElseThrow();
+            client.sync(chain);
+            Assertions.assertEquals(4, client.confirmations(mined.get(0).id(), first));
+        }
+    }
+}
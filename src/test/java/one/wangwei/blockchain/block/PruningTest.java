@@ -0,0 +1,131 @@
+package one.wangwei.blockchain.block;
+
+import one.wangwei.blockchain.load.LoadGenerator;
+import one.wangwei.blockchain.store.RocksDbBlockRepository;
+import one.wangwei.blockchain.transaction.OutputReference;
+import one.wangwei.blockchain.transaction.Transaction;
+import one.wangwei.blockchain.util.ObjectMapper;
+import one.wangwei.blockchain.wallet.Address;
+import one.wangwei.blockchain.wallet.WalletRepository;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.file.Path;
+import java.security.Security;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class PruningTest {
+    static {
+        Security.addProvider(new BouncyCastleProvider());
+    }
+
+    @TempDir
+    Path dir;
+
+    @Test
+    public void shouldKeepBalancesAndValidationAfterPruning() throws Exception {
+        var serializer = new ObjectMapper();
+        var key = new SecretKeySpec(new byte[32], "AES");
+        new LoadGenerator(serializer, key, dir, 3, 12, 2).run();
+        var wallets = new WalletRepository(serializer, key, dir.resolve("wallet.dat"));
+        try (var storage = new RocksDbBlockRepository(serializer, dir.resolve("blockchain.db").toString())) {
+            var chain = new Blockchain(storage);
+            var top = chain.height().orElseThrow();
+            var headers = chain.headers(0, top).toList();
+            var before = balances(chain, wallets);
+
+            Assertions.assertEquals(top - 1, storage.prune(2));
+            Assertions.assertEquals(0, storage.prune(2));
+            Assertions.assertEquals(top - 1, chain.prunedHeight());
+            Assertions.assertTrue(storage.findById(storage.findIdByHeight(0).orElseThrow()).isEmpty());
+            Assertions.assertEquals(before, balances(chain, wallets));
+            Assertions.assertEquals(headers, chain.headers(0, top).toList());
+            Assertions.assertEquals(headers.get(0), chain.headers(top, 0).reduce((a, b) -> b).orElseThrow());
+            try (var blocks = chain.range(0, top)) {
+                Assertions.assertEquals(2, blocks.count());
+            }
+            Assertions.assertThrows(IllegalStateException.class, () -> new ChainValidator(Block.Id.Null).validate(chain));
+
+            // following from a pruned block fails instead of skipping to the blocks still stored
+            for (var after : List.of(Block.Id.Null, headers.get(0).id())) {
+                var error = follow(chain.blocks(after, Runnable::run), new ArrayList<>());
+                Assertions.assertInstanceOf(IllegalStateException.class, error, "after " + after);
+            }
+            var received = new ArrayList<Block.Id>();
+            Assertions.assertNull(follow(chain.blocks(headers.get(headers.size() - 2).id(), Runnable::run), received));
+            Assertions.assertEquals(List.of(headers.get(headers.size() - 1).id()), received);
+
+            // spends outputs that now only exist in the pruned index
+            var addresses = wallets.getAddresses().stream().sorted(Comparator.comparing(Address::toString)).toList();
+            var from = addresses.get(0);
+            var to = addresses.get(1);
+            var tx = Transaction.createTransaction(from, to, before.get(from), chain, wallets);
+            Assertions.assertTrue(chain.verifyTransactions(tx));
+            chain.mineBlock(new Transaction[]{tx}).orElseThrow();
+            var after = balances(chain, wallets);
+            Assertions.assertEquals(0, after.get(from));
+            Assertions.assertEquals(before.get(from) + before.get(to), after.get(to));
+
+            // pruned and full outputs alike merge into one, which then pays the whole balance alone
+            var merge = Transaction.createConsolidation(to, chain, wallets).orElseThrow();
+            Assertions.assertTrue(chain.verifyTransactions(merge));
+            chain.mineBlock(new Transaction[]{merge}).orElseThrow();
+            Assertions.assertEquals(after, balances(chain, wallets));
+            Assertions.assertTrue(Transaction.createConsolidation(to, chain, wallets).isEmpty());
+            Assertions.assertEquals(1, Transaction.createTransaction(to, from, after.get(to), chain, wallets).inputs().length);
+        }
+    }
+
+    /**
+     * Delivers what is there on the calling thread, then cancels; returns the error, if any.
+     */
+    private static Throwable follow(Flow.Publisher<Block> publisher, List<Block.Id> received) {
+        var error = new AtomicReference<Throwable>();
+        publisher.subscribe(new Flow.Subscriber<>() {
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                subscription.request(Long.MAX_VALUE);
+                subscription.cancel();
+            }
+
+            @Override
+            public void onNext(Block item) {
+                received.add(item.id());
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                error.set(throwable);
+            }
+
+            @Override
+            public void onComplete() {
+            }
+        });
+        return error.get();
+    }
+
+    private static Map<Address, Integer> balances(Blockchain chain, WalletRepository wallets) throws Exception {
+        var result = new HashMap<Address, Integer>();
+        for (var address : wallets.getAddresses()) {
+            try (var unspent = chain.getUnspent(wallets.getWallet(address))) {
+                result.put(address, unspent.map(OutputReference::output).mapToInt(x -> x.value()).sum());
+            }
+        }
+        // the single pass over all wallets must agree with one scan per wallet
+        var all = new HashMap<Address, Integer>();
+        chain.getUnspent(wallets.getWallets().values()).forEach((address, unspent) ->
+                all.put(address, unspent.stream().map(OutputReference::output).mapToInt(x -> x.value()).sum()));
+        Assertions.assertEquals(result, all);
+        return result;
+    }
+}
@@ -0,0 +1,58 @@
+package one.wangwei.blockchain.load;
+
+import one.wangwei.blockchain.block.Block;
+import one.wangwei.blockchain.block.Blockchain;
+import one.wangwei.blockchain.block.ChainValidator;
+import one.wangwei.blockchain.store.RocksDbBlockRepository;
+import one.wangwei.blockchain.util.ObjectMapper;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.file.Path;
+import java.security.Security;
+
+public class LoadGeneratorTest {
+    static {
+        Security.addProvider(new BouncyCastleProvider());
+    }
+
+    @TempDir
+    Path dir;
+
+    @Test
+    public void shouldMineEveryPayment() throws Exception {
+        var serializer = new ObjectMapper();
+        var report = new LoadGenerator(serializer, new SecretKeySpec(new byte[32], "AES"), dir, 3, 6, 2).run();
+
+        Assertions.assertTrue(report.contains("\"wallets\":3,\"payments\":6,\"threads\":2,"), report);
+        Assertions.assertTrue(report.contains("\"createWallet\":{\"count\":3,\"failures\":0,"), report);
+        Assertions.assertTrue(report.contains("\"fund\":{\"count\":2,\"failures\":0,"), report);
+        Assertions.assertTrue(report.contains("\"payment\":{\"count\":6,\"failures\":0,"), report);
+        try (var storage = new RocksDbBlockRepository(serializer, dir.resolve("blockchain.db").toString())) {
+            // genesis, two funding blocks and one block per payment, all of them valid
+            var validation = new ChainValidator(Block.Id.Null).validate(new Blockchain(storage));
+            Assertions.assertEquals(9, validation.blocks());
+        }
+    }
+
+    @Test
+    public void shouldKeepLowDifficultyToItsScratchChain() throws Exception {
+        var serializer = new ObjectMapper();
+        var report = new LoadGenerator(serializer, new SecretKeySpec(new byte[32], "AES"), dir, 2, 2, 1, 4).run();
+
+        Assertions.assertTrue(report.contains("\"targetBits\":4,"), report);
+        try (var storage = new RocksDbBlockRepository(serializer, dir.resolve("blockchain.db").toString())) {
+            Assertions.assertEquals(4, new ChainValidator(Block.Id.Null).validate(new Blockchain(storage, 4)).blocks());
+            // the difficulty is part of the hash, so the chain is no valid chain at the default one
+            Assertions.assertThrows(IllegalStateException.class, () -> new ChainValidator(Block.Id.Null).validate(new Blockchain(storage)));
+        }
+    }
+
+    @Test
+    public void shouldNeedTwoWallets() {
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new LoadGenerator(new ObjectMapper(), new SecretKeySpec(new byte[32], "AES"), dir, 1, 1, 1));
+    }
+}
@@ -0,0 +1,39 @@
+package one.wangwei.blockchain.load;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+
+public class StageTest {
+
+    @Test
+    public void shouldReportCountsAndPercentiles() {
+        var stage = new Stage("append");
+        // 1 to 100 ms, all started together, so 100 in the 100 ms from the first start to the last end
+        for (var i = 1; i <= 100; i++) stage.record(0, i * 1_000_000L);
+        stage.fail();
+
+        Assertions.assertEquals(
+                "\"append\":{\"count\":100,\"failures\":1,\"throughputPerSecond\":1000.000,\"p50Millis\":50.000,\"p90Millis\":90.000,\"p99Millis\":99.000,\"maxMillis\":100.000}",
+                stage.toJson());
+    }
+
+    @Test
+    public void shouldCountFailuresOfTimedCommands() throws Exception {
+        var stage = new Stage("payment");
+
+        Assertions.assertEquals(42, stage.time(() -> 42));
+        Assertions.assertThrows(IOException.class, () -> stage.time(() -> {
+            throw new IOException("no funds");
+        }));
+        Assertions.assertTrue(stage.toJson().contains("\"count\":1,\"failures\":1,"));
+    }
+
+    @Test
+    public void shouldReportNothingForEmptyStage() {
+        Assertions.assertEquals(
+                "\"mine\":{\"count\":0,\"failures\":0,\"throughputPerSecond\":0.000,\"p50Millis\":0.000,\"p90Millis\":0.000,\"p99Millis\":0.000,\"maxMillis\":0.000}",
+                new Stage("mine").toJson());
+    }
+}
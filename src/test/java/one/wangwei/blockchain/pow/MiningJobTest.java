@@ -0,0 +1,55 @@
+package one.wangwei.blockchain.pow;
+
+import one.wangwei.blockchain.block.Block;
+import one.wangwei.blockchain.transaction.Transaction;
+import one.wangwei.blockchain.wallet.Wallet;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.security.Security;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static one.wangwei.blockchain.wallet.Address.Version.Prod;
+
+public class MiningJobTest {
+    static {
+        Security.addProvider(new BouncyCastleProvider());
+    }
+
+    @Test
+    public void shouldStopWhenCancelled() {
+        var job = new AtomicReference<MiningJob>();
+        job.set(new MiningJob(Block.Id.Null, new Transaction[]{coinbase()}, null, 1, x -> job.get().cancel()));
+
+        Assertions.assertTrue(job.get().run().isEmpty());
+        Assertions.assertTrue(job.get().isDone());
+    }
+
+    @Test
+    public void shouldMineRefreshedTemplate() throws Exception {
+        var next = new Block.Id(new byte[32]);
+        next.value()[0] = 1;
+        var refreshed = coinbase();
+        var job = new AtomicReference<MiningJob>();
+        job.set(new MiningJob(Block.Id.Null, new Transaction[]{coinbase()}, null, 1, x -> {
+            if (x.nonce() == 0) job.get().refresh(next, refreshed);
+        }));
+
+        var executor = Executors.newFixedThreadPool(2);
+        try {
+            var block = job.get().start(executor, 2).get(60, SECONDS).orElseThrow();
+            Assertions.assertEquals(next, block.previousId());
+            Assertions.assertSame(refreshed, block.transactions()[0]);
+            Assertions.assertTrue(Pow.validate(block));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static Transaction coinbase() {
+        return Transaction.createCoinbaseTX(Wallet.createWallet(Prod).getAddress(), "");
+    }
+}
@@ -0,0 +1,50 @@
+package one.wangwei.blockchain.pow;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.Random;
+
+public class VectorNonceSearchTest {
+
+    @Test
+    public void shouldMatchMessageDigest() throws Exception {
+        var random = new Random(42);
+        var search = new VectorNonceSearch();
+        var sha = MessageDigest.getInstance("SHA-256");
+        for (var length = 0; length < 200; length++) {
+            var prefix = new byte[length];
+            random.nextBytes(prefix);
+            var first = random.nextLong() >>> 1;
+            var stride = 1 + random.nextInt(8);
+            var state = search.digest(prefix, first, stride);
+            for (var lane = 0; lane < search.lanes(); lane++) {
+                sha.update(prefix);
+                sha.update(ByteBuffer.allocate(Long.BYTES).putLong(first + lane * stride).array());
+                var expected = ByteBuffer.wrap(sha.digest());
+                for (var word = 0; word < 8; word++) {
+                    Assertions.assertEquals(expected.getInt(), state[word].lane(lane), "length %s lane %s".formatted(length, lane));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void shouldFindSameNoncesAsScalar() {
+        var random = new Random(7);
+        var prefix = new byte[77];
+        random.nextBytes(prefix);
+        var vector = new VectorNonceSearch();
+        var scalar = new NonceSearch.Scalar();
+        var lanes = vector.lanes();
+        for (var nonce = 0L; nonce < 1 << 18; nonce += lanes) {
+            var expected = -1;
+            for (var lane = 0; lane < lanes && expected < 0; lane++) {
+                if (scalar.search(prefix, nonce + lane, 1, Pow.TARGET_BITS) == 0) expected = lane;
+            }
+            Assertions.assertEquals(expected, vector.search(prefix, nonce, 1, Pow.TARGET_BITS));
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package one.wangwei.blockchain.store;
+
+import one.wangwei.blockchain.block.Block;
+import one.wangwei.blockchain.util.ObjectMapper;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+
+import static one.wangwei.blockchain.store.RocksDbBlockRepositoryTest.block;
+
+public class MappedBlockRepositoryTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    public void shouldRejectAppendOnStaleTip() throws IOException {
+        try (var storage = new MappedBlockRepository(new ObjectMapper(), dir)) {
+            var genesis = block(Block.Id.Null);
+            var first = block(genesis.id());
+            var second = block(genesis.id());
+
+            Assertions.assertTrue(storage.append(genesis));
+            Assertions.assertTrue(storage.append(first));
+            Assertions.assertFalse(storage.append(second));
+            Assertions.assertFalse(storage.append(block(Block.Id.Null)));
+            Assertions.assertEquals(Optional.of(first.id()), storage.getLastBlockId());
+            Assertions.assertTrue(storage.findById(second.id()).isEmpty());
+        }
+    }
+
+    @Test
+    public void shouldReadFromSnapshot() throws IOException {
+        try (var storage = new MappedBlockRepository(new ObjectMapper(), dir)) {
+            var genesis = block(Block.Id.Null);
+            storage.append(genesis);
+            try (var view = storage.snapshot()) {
+                var next = block(genesis.id());
+                storage.append(next);
+
+                Assertions.assertEquals(Optional.of(genesis.id()), view.getLastBlockId());
+                Assertions.assertTrue(view.findById(next.id()).isEmpty());
+                Assertions.assertEquals(Optional.of(next.id()), storage.getLastBlockId());
+            }
+        }
+    }
+
+    @Test
+    public void shouldRollOverSegmentsAndReopen() throws IOException {
+        var blocks = new ArrayList<Block>();
+        var previous = Block.Id.Null;
+        for (var i = 0; i < 100; i++) {
+            var block = block(previous);
+            blocks.add(block);
+            previous = block.id();
+        }
+        try (var storage = new MappedBlockRepository(new ObjectMapper(), dir, 1024)) {
+            Assertions.assertTrue(storage.appendAll(blocks.subList(0, 60), Durability.Sync));
+            for (var block : blocks.subList(60, 100)) Assertions.assertTrue(storage.append(block));
+        }
+        Assertions.assertTrue(Files.exists(dir.resolve("blk00002.dat")));
+        try (var storage = new MappedBlockRepository(new ObjectMapper(), dir, 1024)) {
+            Assertions.assertEquals(Optional.of(99L), storage.getHeight());
+            Assertions.assertEquals(Optional.of(blocks.get(65).id()), storage.findIdByHeight(65));
+            Assertions.assertEquals(blocks.get(64).id(), storage.findById(blocks.get(65).id()).orElseThrow().previousId());
+            Assertions.assertTrue(storage.getTotals(99).orElseThrow().bytes() > storage.getTotals(98).orElseThrow().bytes());
+            try (var view = storage.snapshot()) {
+                Assertions.assertEquals(ids(blocks.subList(2, 8)), ids(view.range(2, 7, 3)));
+                var descending = ids(blocks.subList(95, 100));
+                Collections.reverse(descending);
+                Assertions.assertEquals(descending, ids(view.range(200, 95, 2)));
+            }
+            var next = block(previous);
+            Assertions.assertTrue(storage.append(next));
+            Assertions.assertEquals(previous, storage.findById(next.id()).orElseThrow().previousId());
+        }
+    }
+
+    private static List<Block.Id> ids(List<Block> blocks) {
+        return new ArrayList<>(blocks.stream().map(Block::id).toList());
+    }
+
+    private static List<Block.Id> ids(BlockRepository.Range range) {
+        try (range) {
+            var result = new ArrayList<Block.Id>();
+            range.forEachRemaining(x -> result.add(x.id()));
+            return result;
+        }
+    }
+}
@@ -0,0 +1,347 @@
+package one.wangwei.blockchain.store;
+
+import one.wangwei.blockchain.block.Block;
+import one.wangwei.blockchain.transaction.Input;
+import one.wangwei.blockchain.transaction.Output;
+import one.wangwei.blockchain.transaction.Transaction;
+import one.wangwei.blockchain.util.ObjectMapper;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+import org.rocksdb.Options;
+import org.rocksdb.RocksDB;
+import org.rocksdb.RocksDBException;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+
+import static java.util.stream.Collectors.toCollection;
+
+public class RocksDbBlockRepositoryTest {
+    private static final Random random = new Random();
+
+    @TempDir
+    Path dir;
+
+    @Test
+    public void shouldRejectAppendOnStaleTip() throws RocksDBException {
+        try (var storage = new RocksDbBlockRepository(new ObjectMapper(), dir.toString())) {
+            var genesis = block(Block.Id.Null);
+            var first = block(genesis.id());
+            var second = block(genesis.id());
+
+            Assertions.assertTrue(storage.append(genesis));
+            Assertions.assertTrue(storage.append(first));
+            Assertions.assertFalse(storage.append(second));
+            Assertions.assertEquals(Optional.of(first.id()), storage.getLastBlockId());
+            Assertions.assertTrue(storage.findById(second.id()).isEmpty());
+        }
+    }
+
+    @Test
+    public void shouldReadFromSnapshot() throws RocksDBException {
+        try (var storage = new RocksDbBlockRepository(new ObjectMapper(), dir.toString())) {
+            var genesis = block(Block.Id.Null);
+            storage.append(genesis);
+            try (var view = storage.snapshot()) {
+                var next = block(genesis.id());
+                storage.append(next);
+
+                Assertions.assertEquals(Optional.of(genesis.id()), view.getLastBlockId());
+                Assertions.assertTrue(view.findById(next.id()).isEmpty());
+                Assertions.assertEquals(Optional.of(next.id()), storage.getLastBlockId());
+            }
+        }
+    }
+
+    @Test
+    public void shouldIterateHeightRange() throws RocksDBException {
+        try (var storage = new RocksDbBlockRepository(new ObjectMapper(), dir.toString())) {
+            var blocks = new ArrayList<Block>();
+            var previous = Block.Id.Null;
+            for (var i = 0; i < 10; i++) {
+                var block = block(previous);
+                storage.append(block);
+                blocks.add(block);
+                previous = block.id();
+            }
+
+            Assertions.assertEquals(Optional.of(9L), storage.getHeight());
+            Assertions.assertEquals(Optional.of(blocks.get(4).id()), storage.findIdByHeight(4));
+            try (var view = storage.snapshot()) {
+                Assertions.assertEquals(ids(blocks.subList(2, 8)), ids(view.range(2, 7, 3)));
+                var descending = ids(blocks.subList(5, 10));
+                Collections.reverse(descending);
+                Assertions.assertEquals(descending, ids(view.range(20, 5, 2)));
+            }
+        }
+    }
+
+    @ParameterizedTest
+    @EnumSource(Durability.class)
+    public void shouldAppendBatch(Durability durability) throws RocksDBException {
+        try (var storage = new RocksDbBlockRepository(new ObjectMapper(), dir.toString())) {
+            var blocks = new ArrayList<Block>();
+            var previous = Block.Id.Null;
+            for (var i = 0; i < 100; i++) {
+                var block = block(previous);
+                blocks.add(block);
+                previous = block.id();
+            }
+
+            Assertions.assertTrue(storage.appendAll(blocks.subList(0, 60), durability));
+            Assertions.assertFalse(storage.appendAll(blocks.subList(70, 100), durability));
+            Assertions.assertTrue(storage.appendAll(blocks.subList(60, 100), durability));
+            storage.flush();
+
+            Assertions.assertEquals(Optional.of(previous), storage.getLastBlockId());
+            Assertions.assertEquals(Optional.of(99L), storage.getHeight());
+            Assertions.assertEquals(Optional.of(blocks.get(65).id()), storage.findIdByHeight(65));
+        }
+    }
+
+    @ParameterizedTest
+    @EnumSource(Compression.class)
+    public void shouldReadBlocksAfterCompaction(Compression compression) throws RocksDBException {
+        var blocks = new ArrayList<Block>();
+        try (var storage = new RocksDbBlockRepository(new ObjectMapper(), dir.toString(), Compression.None)) {
+            var previous = Block.Id.Null;
+            for (var i = 0; i < 50; i++) {
+                var block = block(previous);
+                blocks.add(block);
+                previous = block.id();
+            }
+            storage.appendAll(blocks, Durability.Async);
+        }
+        try (var storage = new RocksDbBlockRepository(new ObjectMapper(), dir.toString(), compression)) {
+            storage.compact();
+            Assertions.assertTrue(storage.diskSize() > 0);
+            for (var block : blocks) {
+                Assertions.assertEquals(block.previousId(), storage.findById(block.id()).orElseThrow().previousId());
+            }
+        }
+    }
+
+    @Test
+    public void shouldReadBlockLargerThanReadBuffer() throws RocksDBException {
+        try (var storage = new RocksDbBlockRepository(new ObjectMapper(), dir.toString())) {
+            var outputs = new Output[5000];
+            for (var i = 0; i < outputs.length; i++) {
+                var pubKeyHash = new byte[20];
+                random.nextBytes(pubKeyHash);
+                outputs[i] = new Output(i, pubKeyHash);
+            }
+            var tx = new Transaction(new Transaction.Id(new byte[32]), new Input[0], outputs, Instant.now());
+            var id = new byte[32];
+            random.nextBytes(id);
+            var large = new Block(new Block.Id(id), Block.Id.Null, new Transaction[]{tx}, Instant.now(), 0);
+            storage.append(large);
+
+            var read = storage.findById(large.id()).orElseThrow();
+            Assertions.assertEquals(outputs.length, read.transactions()[0].outputs().length);
+            Assertions.assertArrayEquals(outputs[4999].pubKeyHash(), read.transactions()[0].outputs()[4999].pubKeyHash());
+            // a small block after the buffer grew
+            var next = block(large.id());
+            storage.append(next);
+            Assertions.assertEquals(large.id(), storage.findById(next.id()).orElseThrow().previousId());
+        }
+    }
+
+    @Test
+    public void shouldKeepRunningTotals() throws RocksDBException {
+        try (var storage = new RocksDbBlockRepository(new ObjectMapper(), dir.toString())) {
+            var blocks = new ArrayList<Block>();
+            var previous = Block.Id.Null;
+            for (var i = 0; i < 10; i++) {
+                var coinbase = new Transaction(new Transaction.Id(new byte[32]), new Input[]{new Input(new Transaction.Id(new byte[0]), -1, null, new byte[0])}, new Output[]{new Output(10, new byte[20])}, Instant.now());
+                var payment = new Transaction(new Transaction.Id(new byte[32]), new Input[0], new Output[]{new Output(4, new byte[20]), new Output(6, new byte[20])}, Instant.now());
+                var id = new byte[32];
+                random.nextBytes(id);
+                var block = new Block(new Block.Id(id), previous, new Transaction[]{coinbase, payment}, Instant.ofEpochMilli(1_000L * i), 0);
+                blocks.add(block);
+                previous = block.id();
+            }
+            storage.appendAll(blocks.subList(0, 4), Durability.Async);
+            for (var block : blocks.subList(4, 10)) storage.append(block);
+
+            var totals = storage.getTotals(9).orElseThrow();
+            Assertions.assertEquals(20, totals.transactions());
+            Assertions.assertEquals(30, totals.outputs());
+            Assertions.assertEquals(100, totals.issued());
+            Assertions.assertEquals(9_000, totals.timeMillis());
+            var range = totals.minus(storage.getTotals(2).orElseThrow());
+            Assertions.assertEquals(14, range.transactions());
+            Assertions.assertEquals(70, range.issued());
+            Assertions.assertTrue(storage.getTotals(10).isEmpty());
+        }
+    }
+
+    @Test
+    public void shouldRebuildIndexes() throws RocksDBException {
+        var blocks = new ArrayList<Block>();
+        var previous = Block.Id.Null;
+        for (var i = 0; i < 2500; i++) {
+            var block = block(previous);
+            blocks.add(block);
+            previous = block.id();
+        }
+        Totals totals;
+        try (var storage = new RocksDbBlockRepository(new ObjectMapper(), dir.toString())) {
+            storage.appendAll(blocks, Durability.Async);
+            totals = storage.getTotals(2499).orElseThrow();
+        }
+        try (var options = new Options(); var db = RocksDB.open(options, dir.toString())) {
+            db.delete(key('h', 1200));
+            db.delete(key('s', 700));
+            db.put(key('h', 2500), blocks.get(3).id().value());
+            db.delete(prefixed('f', blocks.get(42).id()));
+            db.delete(prefixed('i', blocks.get(2000).id()));
+            db.delete(prefixed('i', blocks.get(2499).id()));
+        }
+        try (var storage = new RocksDbBlockRepository(new ObjectMapper(), dir.toString())) {
+            // filled in on open from the tip down, the gap below is left to reindex
+            Assertions.assertEquals(Optional.of(2499L), storage.findHeightById(blocks.get(2499).id()));
+            Assertions.assertTrue(storage.findHeightById(blocks.get(2000).id()).isEmpty());
+            // stops after the first range is written
+            Assertions.assertThrows(RuntimeException.class, () -> storage.reindex(1, x -> {
+                throw new IllegalStateException("interrupted");
+            }));
+            var reported = new ArrayList<Long>();
+            var read = storage.reindex(2, reported::add);
+            Assertions.assertTrue(read > 0 && read < 2500, "read " + read);
+            Assertions.assertEquals(read, Collections.max(reported));
+
+            Assertions.assertEquals(Optional.of(2499L), storage.getHeight());
+            Assertions.assertEquals(Optional.of(blocks.get(1200).id()), storage.findIdByHeight(1200));
+            Assertions.assertTrue(storage.findIdByHeight(2500).isEmpty());
+            Assertions.assertEquals(totals, storage.getTotals(2499).orElseThrow());
+            Assertions.assertTrue(storage.getTotals(700).isPresent());
+            Assertions.assertEquals(Optional.of(2000L), storage.findHeightById(blocks.get(2000).id()));
+            Assertions.assertEquals(Optional.of(3L), storage.findHeightById(blocks.get(3).id()));
+            try (var view = storage.snapshot()) {
+                Assertions.assertEquals(ids(blocks), ids(view.range(0, 2499, 8)));
+                Assertions.assertFalse(view.mayContain(blocks.get(42).id(), new byte[]{1, 2, 3}));
+            }
+            // nothing is left for a next run to resume from
+            Assertions.assertEquals(2500, storage.reindex(1, x -> {
+            }));
+        }
+    }
+
+    @Test
+    public void shouldFinishReindexAfterAppendsMidRun() throws RocksDBException {
+        var blocks = new ArrayList<Block>();
+        var previous = Block.Id.Null;
+        for (var i = 0; i < 300; i++) {
+            var block = block(previous);
+            blocks.add(block);
+            previous = block.id();
+        }
+        try (var storage = new RocksDbBlockRepository(new ObjectMapper(), dir.toString())) {
+            storage.appendAll(blocks, Durability.Async);
+
+            // every range is read, then a block is appended and the run stops before heights are written
+            Assertions.assertThrows(RuntimeException.class, () -> storage.reindex(1, x -> {
+                if (x < blocks.size()) return;
+                blocks.add(block(blocks.get(blocks.size() - 1).id()));
+                Assertions.assertTrue(storage.append(blocks.get(blocks.size() - 1)));
+                throw new IllegalStateException("interrupted");
+            }));
+            // the ranges are done, the next run only walks the chain, reading the block appended since
+            Assertions.assertEquals(0, storage.reindex(1, x -> {
+            }));
+            Assertions.assertEquals(Optional.of(300L), storage.getHeight());
+
+            // a run from scratch, with a block appended after every range is read
+            Assertions.assertEquals(301, storage.reindex(2, x -> {
+                if (x < 301 || blocks.size() > 301) return;
+                blocks.add(block(blocks.get(blocks.size() - 1).id()));
+                Assertions.assertTrue(storage.append(blocks.get(blocks.size() - 1)));
+            }));
+            for (var height : new int[]{0, 299, 300, 301}) {
+                Assertions.assertEquals(Optional.of(blocks.get(height).id()), storage.findIdByHeight(height));
+                Assertions.assertEquals(Optional.of((long) height), storage.findHeightById(blocks.get(height).id()));
+            }
+            try (var view = storage.snapshot()) {
+                Assertions.assertEquals(ids(blocks), ids(view.range(0, 301, 8)));
+            }
+            Assertions.assertEquals(Optional.of(301L), storage.getHeight());
+        }
+    }
+
+    @Test
+    public void shouldReadBlocksLargerThanRetainedBuffer() throws RocksDBException {
+        try (var storage = new RocksDbBlockRepository(new ObjectMapper(), dir.toString())) {
+            var genesis = block(Block.Id.Null);
+            var data = new byte[3 * 1024 * 1024];
+            random.nextBytes(data);
+            var tx = new Transaction(new Transaction.Id(new byte[]{1}), new Input[]{new Input(new Transaction.Id(new byte[0]), -1, null, data)}, new Output[0], Instant.now());
+            var large = new Block(new Block.Id(new byte[]{2}), genesis.id(), new Transaction[]{tx}, Instant.now(), 0);
+            var small = block(large.id());
+            for (var x : List.of(genesis, large, small)) Assertions.assertTrue(storage.append(x));
+
+            for (var i = 0; i < 2; i++) {
+                Assertions.assertArrayEquals(data, storage.findById(large.id()).orElseThrow().transactions()[0].inputs()[0].getPubKey());
+                Assertions.assertEquals(small.id(), storage.findById(small.id()).orElseThrow().id());
+            }
+        }
+    }
+
+    @Test
+    public void shouldPruneAcrossTransactions() throws RocksDBException {
+        var blocks = new ArrayList<Block>();
+        var previous = Block.Id.Null;
+        for (var i = 0; i < 2500; i++) {
+            var block = block(previous);
+            blocks.add(block);
+            previous = block.id();
+        }
+        try (var storage = new RocksDbBlockRepository(new ObjectMapper(), dir.toString())) {
+            storage.appendAll(blocks, Durability.Async);
+
+            Assertions.assertEquals(2400, storage.prune(100));
+            Assertions.assertEquals(2400, storage.getPrunedHeight());
+            for (var height : new int[]{0, 999, 1000, 2399}) {
+                Assertions.assertTrue(storage.findById(blocks.get(height).id()).isEmpty(), "height " + height);
+                Assertions.assertEquals(blocks.get(height).header(), storage.findPrunedHeader(blocks.get(height).id()).orElseThrow());
+            }
+            Assertions.assertEquals(blocks.get(2400).id(), storage.findById(blocks.get(2400).id()).orElseThrow().id());
+            Assertions.assertEquals(50, storage.prune(50));
+            Assertions.assertEquals(0, storage.prune(50));
+        }
+    }
+
+    private static byte[] key(char prefix, long height) {
+        return ByteBuffer.allocate(1 + Long.BYTES).put((byte) prefix).putLong(height).array();
+    }
+
+    private static byte[] prefixed(char prefix, Block.Id id) {
+        return ByteBuffer.allocate(1 + id.value().length).put((byte) prefix).put(id.value()).array();
+    }
+
+    private static List<Block.Id> ids(List<Block> blocks) {
+        return blocks.stream().map(Block::id).collect(toCollection(ArrayList::new));
+    }
+
+    private static List<Block.Id> ids(RocksDbBlockRepository.Range range) {
+        try (range) {
+            var result = new ArrayList<Block.Id>();
+            range.forEachRemaining(x -> result.add(x.id()));
+            return result;
+        }
+    }
+
+    static Block block(Block.Id previousId) {
+        var id = new byte[32];
+        random.nextBytes(id);
+        return new Block(new Block.Id(id), previousId, new Transaction[0], Instant.now(), 0);
+    }
+}
@@ -0,0 +1,75 @@
+package one.wangwei.blockchain.transaction;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+public class CoinSelectionTest {
+
+    @Test
+    public void shouldPreferExactMatchOverFewestInputs() {
+        var unspent = outputs(1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 7, 3);
+
+        Assertions.assertEquals(10, CoinSelection.ChainOrder.select(unspent.stream(), 10).size());
+        Assertions.assertEquals(List.of(7, 3), values(CoinSelection.LargestFirst.select(unspent.stream(), 9)));
+        // 7 + 3 covers 9 too, but 7 + 1 + 1 needs no change
+        Assertions.assertEquals(List.of(7, 1, 1), values(CoinSelection.BranchAndBound.select(unspent.stream(), 9)));
+        Assertions.assertEquals(List.of(7, 3), values(CoinSelection.BranchAndBound.select(unspent.stream(), 10)));
+    }
+
+    @Test
+    public void shouldFallBackWithoutExactMatch() {
+        var unspent = outputs(10, 10, 10, 4);
+
+        Assertions.assertEquals(List.of(10, 10), values(CoinSelection.BranchAndBound.select(unspent.stream(), 15)));
+    }
+
+    @Test
+    public void shouldFindExactMatchAmongManyOutputs() {
+        var random = new Random(3);
+        var unspent = outputs(IntStream.range(0, 5000).map(x -> 1 + random.nextInt(1000)).toArray());
+        for (var amount : new int[]{1, 999, 2345, 20_001}) {
+            var selected = CoinSelection.BranchAndBound.select(unspent.stream(), amount);
+            Assertions.assertEquals(amount, values(selected).stream().mapToInt(Integer::intValue).sum());
+            Assertions.assertTrue(selected.size() <= CoinSelection.LargestFirst.select(unspent.stream(), amount).size() + 1);
+        }
+    }
+
+    @ParameterizedTest
+    @EnumSource(CoinSelection.class)
+    public void shouldBoundInputs(CoinSelection selection) {
+        var unspent = outputs(IntStream.generate(() -> 1).limit(CoinSelection.MAX_INPUTS + 1).toArray());
+
+        Assertions.assertEquals(CoinSelection.MAX_INPUTS, selection.select(unspent.stream(), CoinSelection.MAX_INPUTS).size());
+        var tooMany = Assertions.assertThrows(RuntimeException.class, () -> selection.select(unspent.stream(), CoinSelection.MAX_INPUTS + 1));
+        Assertions.assertTrue(tooMany.getMessage().contains("consolidate"));
+        var insufficient = Assertions.assertThrows(RuntimeException.class, () -> selection.select(unspent.stream(), CoinSelection.MAX_INPUTS + 2));
+        Assertions.assertEquals("insufficient funds", insufficient.getMessage());
+        Assertions.assertEquals(List.of(1, 1, 1), values(CoinSelection.consolidate(unspent.stream(), 3)));
+    }
+
+    @Test
+    public void shouldRejectMaxInputsBelowOne() {
+        Assertions.assertEquals(1, CoinSelection.checkMaxInputs(1));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> CoinSelection.checkMaxInputs(0));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> CoinSelection.checkMaxInputs(-5));
+    }
+
+    private static List<OutputReference> outputs(int... values) {
+        var result = new ArrayList<OutputReference>();
+        for (var i = 0; i < values.length; i++) {
+            result.add(new OutputReference(new Transaction.Id(new byte[]{(byte) i}), i, new Output(values[i], new byte[20])));
+        }
+        return result;
+    }
+
+    private static List<Integer> values(List<OutputReference> selected) {
+        return selected.stream().map(x -> x.output().value()).toList();
+    }
+}
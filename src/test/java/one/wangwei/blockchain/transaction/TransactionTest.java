@@ -0,0 +1,167 @@
+package one.wangwei.blockchain.transaction;
+
+import one.wangwei.blockchain.block.Blockchain;
+import one.wangwei.blockchain.store.RocksDbBlockRepository;
+import one.wangwei.blockchain.util.MerkleRoot;
+import one.wangwei.blockchain.util.ObjectMapper;
+import one.wangwei.blockchain.wallet.Wallet;
+import one.wangwei.blockchain.wallet.WalletRepository;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.Security;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static one.wangwei.blockchain.wallet.Address.Version.Prod;
+
+public class TransactionTest {
+    static {
+        Security.addProvider(new BouncyCastleProvider());
+    }
+
+    @Test
+    public void shouldInvalidateHashWhenInputChanges() {
+        var tx = newTransaction(Wallet.createWallet(Prod));
+        var before = tx.hash();
+
+        tx.inputs()[0].setSignature(new byte[]{1, 2, 3});
+
+        Assertions.assertFalse(Arrays.equals(before, tx.hash()));
+        Assertions.assertArrayEquals(copyOf(tx).hash(), tx.hash());
+    }
+
+    @Test
+    public void shouldNotExposeMemoizedHashes() {
+        var tx = newTransaction(Wallet.createWallet(Prod));
+        var input = tx.inputs()[0].hash();
+        var hash = tx.hash();
+        var root = MerkleRoot.merkleRoot(List.of(hash));
+
+        tx.inputs()[0].hash()[0] ^= 1;
+        tx.hash()[0] ^= 1;
+        MerkleRoot.merkleRoot(List.of(tx.hash()))[0] ^= 1;
+        root[0] ^= 1;
+
+        Assertions.assertArrayEquals(input, tx.inputs()[0].hash());
+        Assertions.assertArrayEquals(hash, tx.hash());
+        Assertions.assertArrayEquals(copyOf(tx).hash(), tx.hash());
+    }
+
+    @Test
+    public void shouldRehashAfterSigning() throws GeneralSecurityException {
+        var wallet = Wallet.createWallet(Prod);
+        var coinbase = Transaction.createCoinbaseTX(wallet.getAddress(), "");
+        var tx = new Transaction(null, new Input[]{input(coinbase, wallet), input(coinbase, wallet)}, coinbase.outputs(), Instant.now());
+        tx.id(new Transaction.Id(tx.hash()));
+        var prevTx = Map.of(coinbase.id(), coinbase);
+
+        tx.sign(wallet.privateKey(), prevTx);
+
+        Assertions.assertTrue(tx.verify(prevTx));
+        Assertions.assertArrayEquals(copyOf(tx).hash(), tx.hash());
+        // the signatures changed the hash, not the id derived from it
+        Assertions.assertTrue(tx.hasConsistentId());
+        Assertions.assertFalse(new Transaction(coinbase.id(), tx.inputs(), tx.outputs(), tx.created()).hasConsistentId());
+    }
+
+    @Test
+    public void shouldCacheVerifiedInputsForSameContent() throws GeneralSecurityException {
+        var wallet = Wallet.createWallet(Prod);
+        var coinbase = Transaction.createCoinbaseTX(wallet.getAddress(), "");
+        var tx = new Transaction(null, new Input[]{input(coinbase, wallet), input(coinbase, wallet)}, coinbase.outputs(), Instant.now());
+        tx.id(new Transaction.Id(tx.hash()));
+        var prevTx = Map.of(coinbase.id(), coinbase);
+        tx.sign(wallet.privateKey(), prevTx);
+        var cache = new SignatureCache(1024);
+
+        var pending = cache.unverified(tx);
+        Assertions.assertEquals(2, pending.cardinality());
+        Assertions.assertTrue(tx.verify(Map.of(), i -> false));
+        Assertions.assertTrue(tx.verify(prevTx, pending::get));
+        cache.verified(tx, pending);
+        Assertions.assertTrue(cache.unverified(tx).isEmpty());
+
+        // same id, other signature: nothing carries over
+        tx.inputs()[1].setSignature(tx.inputs()[0].getSignature());
+        Assertions.assertEquals(2, cache.unverified(tx).cardinality());
+    }
+
+    @Test
+    public void shouldHashConsistentlyAcrossThreads() throws Exception {
+        var tx = newTransaction(Wallet.createWallet(Prod));
+        var expected = copyOf(tx).hash();
+        var pool = Executors.newFixedThreadPool(4);
+        try {
+            for (var round = 0; round < 500; round++) {
+                var copy = copyOf(tx);
+                var start = new CountDownLatch(1);
+                var hashes = new ArrayList<Future<byte[]>>();
+                for (var i = 0; i < 4; i++) {
+                    hashes.add(pool.submit(() -> {
+                        start.await();
+                        return copy.hash();
+                    }));
+                }
+                start.countDown();
+                for (var hash : hashes) Assertions.assertArrayEquals(expected, hash.get());
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static Input input(Transaction coinbase, Wallet wallet) {
+        return new Input(coinbase.id(), 0, wallet.scheme(), null, wallet.publicKey().getEncoded());
+    }
+
+    @Test
+    public void shouldConsolidateAllOutputsIntoOne(@TempDir Path dir) throws Exception {
+        var serializer = new ObjectMapper();
+        var wallets = new WalletRepository(serializer, new SecretKeySpec(new byte[32], "AES"), dir.resolve("wallet.dat"));
+        var address = wallets.createWallet().getAddress();
+        try (var storage = new RocksDbBlockRepository(serializer, dir.resolve("blockchain.db").toString())) {
+            var chain = Blockchain.createBlockchain(storage, address);
+            Assertions.assertTrue(Transaction.createConsolidation(address, chain, wallets).isEmpty());
+            for (var i = 0; i < 3; i++) chain.mineBlock(new Transaction[]{Transaction.createCoinbaseTX(address, "reward " + i)}).orElseThrow();
+
+            var merge = Transaction.createConsolidation(address, chain, wallets).orElseThrow();
+            Assertions.assertEquals(4, merge.inputs().length);
+            Assertions.assertEquals(1, merge.outputs().length);
+            Assertions.assertEquals(40, merge.outputs()[0].value());
+            Assertions.assertTrue(chain.verifyTransactions(merge));
+            chain.mineBlock(new Transaction[]{merge}).orElseThrow();
+            try (var unspent = chain.getUnspent(wallets.getWallet(address))) {
+                Assertions.assertEquals(List.of(40), unspent.map(x -> x.output().value()).toList());
+            }
+            Assertions.assertTrue(Transaction.createConsolidation(address, chain, wallets).isEmpty());
+        }
+    }
+
+    private static Transaction newTransaction(Wallet wallet) {
+        var coinbase = Transaction.createCoinbaseTX(wallet.getAddress(), "");
+        var tx = new Transaction(null, new Input[]{input(coinbase, wallet)}, coinbase.outputs(), Instant.now());
+        tx.id(new Transaction.Id(tx.hash()));
+        return tx;
+    }
+
+    private static Transaction copyOf(Transaction tx) {
+        var inputs = new Input[tx.inputs().length];
+        for (var i = 0; i < inputs.length; i++) {
+            var x = tx.inputs()[i];
+            inputs[i] = new Input(x.getTxId(), x.getOutputIndex(), x.getScheme(), x.getSignature(), x.getPubKey());
+        }
+        return new Transaction(tx.id(), inputs, tx.outputs(), tx.created());
+    }
+}
@@ -0,0 +1,63 @@
+package one.wangwei.blockchain.util;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+public class GolombFilterTest {
+
+    @Test
+    public void shouldContainEveryItem() {
+        var random = new Random(42);
+        for (var size : new int[]{0, 1, 2, 7, 100, 1000}) {
+            var key = bytes(random, 32);
+            var items = new ArrayList<byte[]>();
+            for (var i = 0; i < size; i++) items.add(bytes(random, 1 + random.nextInt(40)));
+            var filter = GolombFilter.fromBytes(GolombFilter.build(key, items).toBytes());
+            for (var item : items) Assertions.assertTrue(filter.mayContain(key, item));
+        }
+    }
+
+    @Test
+    public void shouldRarelyMatchOtherItems() {
+        var random = new Random(7);
+        var key = bytes(random, 32);
+        var items = new ArrayList<byte[]>();
+        for (var i = 0; i < 1000; i++) items.add(bytes(random, 20));
+        var filter = GolombFilter.build(key, items);
+        var matches = 0;
+        for (var i = 0; i < 100_000; i++) if (filter.mayContain(key, bytes(random, 20))) matches++;
+        // the expected rate is 1 / 784931
+        Assertions.assertTrue(matches <= 2, "false positives: " + matches);
+        Assertions.assertTrue(filter.toBytes().length < 1000 * 22 / 8 + 8);
+        Assertions.assertFalse(GolombFilter.build(key, List.of()).mayContain(key, items.get(0)));
+    }
+
+    @Test
+    public void shouldMatchAnyOfManyItems() {
+        var random = new Random(11);
+        var key = bytes(random, 32);
+        var items = new ArrayList<byte[]>();
+        for (var i = 0; i < 100; i++) items.add(bytes(random, 20));
+        var filter = GolombFilter.build(key, items);
+        var others = new ArrayList<byte[]>();
+        for (var i = 0; i < 1000; i++) others.add(bytes(random, 20));
+
+        Assertions.assertFalse(filter.mayContainAny(key, others));
+        Assertions.assertFalse(filter.mayContainAny(key, List.of()));
+        for (var item : List.of(items.get(0), items.get(57), items.get(99))) {
+            var query = new ArrayList<>(others);
+            query.add(random.nextInt(query.size()), item);
+            Assertions.assertTrue(filter.mayContainAny(key, query));
+        }
+    }
+
+    private static byte[] bytes(Random random, int length) {
+        var bytes = new byte[length];
+        random.nextBytes(bytes);
+        return bytes;
+    }
+}
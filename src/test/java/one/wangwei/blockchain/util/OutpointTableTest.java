@@ -0,0 +1,48 @@
+package one.wangwei.blockchain.util;
+
+import one.wangwei.blockchain.transaction.Transaction;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Random;
+
+public class OutpointTableTest {
+
+    @Test
+    public void shouldBehaveLikeAMap() {
+        var random = new Random(42);
+        var table = new OutpointTable();
+        var expected = new HashMap<Outpoint, Long>();
+        var ids = new ArrayList<byte[]>();
+        for (var i = 0; i < 2_000; i++) ids.add(id(random));
+
+        for (var i = 0; i < 50_000; i++) {
+            var id = ids.get(random.nextInt(ids.size()));
+            var index = random.nextInt(4) - 1;
+            var key = new Outpoint(new Transaction.Id(id), index);
+            switch (random.nextInt(3)) {
+                case 0 -> Assertions.assertEquals(expected.put(key, (long) i) == null, table.put(id, index, i));
+                case 1 -> Assertions.assertEquals(expected.remove(key) != null, table.remove(id, index));
+                default -> Assertions.assertEquals(expected.getOrDefault(key, -1L), table.get(id, index, -1));
+            }
+            Assertions.assertEquals(expected.size(), table.size());
+        }
+        expected.forEach((k, v) -> Assertions.assertEquals(v, table.get(k.txId().value(), k.index(), -1)));
+    }
+
+    @Test
+    public void shouldRejectShortIds() {
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new OutpointTable().put(new byte[0], -1, 0));
+    }
+
+    private static byte[] id(Random random) {
+        var id = new byte[32];
+        random.nextBytes(id);
+        return id;
+    }
+
+    private record Outpoint(Transaction.Id txId, int index) {
+    }
+}
@@ -0,0 +1,89 @@
+package one.wangwei.blockchain.util;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.Random;
+
+public class Sha256Test {
+
+    @Test
+    public void shouldMatchMessageDigest() throws Exception {
+        var random = new Random(42);
+        var bytes = new byte[100];
+        random.nextBytes(bytes);
+        var reference = MessageDigest.getInstance("SHA-256");
+        reference.update(bytes, 3, 50);
+        reference.update(Numbers.toBytes(-7));
+        reference.update(Numbers.toBytes(Long.MIN_VALUE + 5));
+        reference.update(bytes, 60, 40);
+        reference.update((byte) 9);
+        var expected = reference.digest();
+
+        var out = new byte[40];
+        Sha256.begin()
+                .put(bytes, 3, 50)
+                .putInt(-7)
+                .putLong(Long.MIN_VALUE + 5)
+                .put(ByteBuffer.wrap(bytes, 60, 40))
+                .put((byte) 9)
+                .put((byte[]) null)
+                .digest(out, 8);
+        Assertions.assertArrayEquals(expected, Arrays.copyOfRange(out, 8, 40));
+    }
+
+    @Test
+    public void shouldNotMixNestedHashes() {
+        var outer = Sha256.begin().put(new byte[]{1});
+        var inner = Sha256.begin().put(new byte[]{2}).digest();
+        Assertions.assertArrayEquals(Hashes.sha256(new byte[]{1}), outer.digest());
+        Assertions.assertArrayEquals(Hashes.sha256(new byte[]{2}), inner);
+    }
+
+    @Test
+    public void shouldRecoverFromAbandonedHash() {
+        var expected = Hashes.sha256(new byte[]{2});
+        Sha256.begin().put(new byte[]{1});
+        // the abandoned digest is left behind once, not allocated around on every later hash
+        var first = Sha256.begin();
+        var hash = first.put(new byte[]{2}).digest();
+        var second = Sha256.begin();
+        Assertions.assertSame(first, second);
+        Assertions.assertArrayEquals(expected, hash);
+        Assertions.assertArrayEquals(expected, second.put(new byte[]{2}).digest());
+    }
+
+    @Test
+    public void shouldKeepMerkleRoots() {
+        var random = new Random(7);
+        for (var size = 0; size < 20; size++) {
+            var leaves = new ArrayList<byte[]>();
+            for (var i = 0; i < size; i++) {
+                var leaf = new byte[32];
+                random.nextBytes(leaf);
+                leaves.add(leaf);
+            }
+            Assertions.assertArrayEquals(reference(new LinkedList<>(leaves)), MerkleRoot.merkleRoot(leaves));
+            if (size > 0) Assertions.assertArrayEquals(reference(new LinkedList<>(leaves)), MerkleRoot.iterate(new LinkedList<>(leaves)).poll());
+        }
+    }
+
+    // the queue based implementation MerkleRoot used before hashing in place
+    private static byte[] reference(LinkedList<byte[]> hashes) {
+        if (hashes.isEmpty()) return Hashes.sha256(null);
+        while (hashes.size() > 1) {
+            var next = new LinkedList<byte[]>();
+            while (!hashes.isEmpty()) {
+                var first = hashes.poll();
+                next.add(Hashes.sha256(first, hashes.isEmpty() ? first : hashes.poll()));
+            }
+            hashes = next;
+        }
+        return hashes.poll();
+    }
+}
@@ -0,0 +1,114 @@
+package one.wangwei.blockchain.wallet;
+
+import one.wangwei.blockchain.transaction.Input;
+import one.wangwei.blockchain.transaction.Output;
+import one.wangwei.blockchain.transaction.Transaction;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import java.security.GeneralSecurityException;
+import java.security.Security;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Map;
+
+import static one.wangwei.blockchain.wallet.Address.Version.Prod;
+
+public class SignatureSchemeTest {
+    static {
+        Security.addProvider(new BouncyCastleProvider());
+    }
+
+    @ParameterizedTest
+    @EnumSource(SignatureScheme.class)
+    public void shouldSignAndVerify(SignatureScheme scheme) throws GeneralSecurityException {
+        var wallet = Wallet.createWallet(Prod, scheme);
+        var coinbase = Transaction.createCoinbaseTX(wallet.getAddress(), "");
+        var tx = spend(wallet, coinbase);
+        var prevTx = Map.of(coinbase.id(), coinbase);
+
+        tx.sign(wallet.privateKey(), prevTx);
+
+        Assertions.assertEquals(scheme, tx.inputs()[0].getScheme());
+        Assertions.assertTrue(tx.verify(prevTx));
+    }
+
+    @ParameterizedTest
+    @EnumSource(SignatureScheme.class)
+    public void shouldRejectForeignKey(SignatureScheme scheme) throws GeneralSecurityException {
+        var wallet = Wallet.createWallet(Prod, scheme);
+        var other = Wallet.createWallet(Prod, scheme);
+        var coinbase = Transaction.createCoinbaseTX(wallet.getAddress(), "");
+        var tx = spend(wallet, coinbase);
+        var prevTx = Map.of(coinbase.id(), coinbase);
+
+        tx.sign(other.privateKey(), prevTx);
+
+        Assertions.assertFalse(tx.verify(prevTx));
+    }
+
+    @ParameterizedTest
+    @EnumSource(SignatureScheme.class)
+    public void shouldVerifyEveryKeyForm(SignatureScheme scheme) throws GeneralSecurityException {
+        var wallet = Wallet.createWallet(Prod, scheme);
+        var coinbase = Transaction.createCoinbaseTX(wallet.getAddress(), "");
+        var prevTx = Map.of(coinbase.id(), coinbase);
+
+        for (var form : scheme.publicKeyForms(wallet.publicKey())) {
+            var tx = spend(wallet, coinbase, form);
+            tx.sign(wallet.privateKey(), prevTx);
+
+            Assertions.assertTrue(tx.verify(prevTx));
+            Assertions.assertArrayEquals(wallet.getAddress().hash(), scheme.pubKeyHash(form).orElseThrow());
+            Assertions.assertEquals(wallet.publicKey(), scheme.decodePublicKey(form));
+        }
+        var encoded = scheme.encodePublicKey(wallet.publicKey());
+        Assertions.assertTrue(encoded.length <= wallet.publicKey().getEncoded().length / 2 || scheme == SignatureScheme.Ed25519);
+    }
+
+    @ParameterizedTest
+    @EnumSource(value = SignatureScheme.class, names = {"Secp521r1", "Secp256k1"})
+    public void shouldRejectPointOffCurve(SignatureScheme scheme) {
+        var encoded = scheme.encodePublicKey(Wallet.createWallet(Prod, scheme).publicKey());
+        // about half of all x coordinates have no point on the curve
+        var rejected = 0;
+        for (var i = 0; i < 32; i++) {
+            encoded[encoded.length - 1]++;
+            try {
+                scheme.decodePublicKey(encoded);
+            } catch (GeneralSecurityException e) {
+                rejected++;
+            }
+        }
+        Assertions.assertTrue(rejected > 0);
+    }
+
+    @ParameterizedTest
+    @EnumSource(value = SignatureScheme.class, names = {"Secp521r1", "Secp256k1"})
+    public void shouldNotVerifyUndecodableKey(SignatureScheme scheme) throws GeneralSecurityException {
+        var wallet = Wallet.createWallet(Prod, scheme);
+        var coinbase = Transaction.createCoinbaseTX(wallet.getAddress(), "");
+        var prevTx = Map.of(coinbase.id(), coinbase);
+        var undecodable = scheme.encodePublicKey(wallet.publicKey());
+        Arrays.fill(undecodable, 1, undecodable.length, (byte) 0xff);
+        var tx = spend(wallet, coinbase, undecodable);
+        tx.sign(wallet.privateKey(), prevTx);
+
+        Assertions.assertTrue(scheme.pubKeyHash(undecodable).isEmpty());
+        Assertions.assertFalse(tx.verify(prevTx));
+    }
+
+    private static Transaction spend(Wallet wallet, Transaction coinbase) {
+        return spend(wallet, coinbase, wallet.publicKey().getEncoded());
+    }
+
+    private static Transaction spend(Wallet wallet, Transaction coinbase, byte[] pubKey) {
+        var input = new Input(coinbase.id(), 0, wallet.scheme(), null, pubKey);
+        var output = new Output(coinbase.outputs()[0].value(), coinbase.outputs()[0].pubKeyHash());
+        var tx = new Transaction(null, new Input[]{input}, new Output[]{output}, Instant.now());
+        tx.id(new Transaction.Id(tx.hash()));
+        return tx;
+    }
+}
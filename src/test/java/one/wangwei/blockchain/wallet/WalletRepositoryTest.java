@@ -0,0 +1,29 @@
+package one.wangwei.blockchain.wallet;
+
+import one.wangwei.blockchain.util.ObjectMapper;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.file.Path;
+
+public class WalletRepositoryTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    public void shouldCreateWalletsInOneWrite() throws Exception {
+        var repository = new WalletRepository(new ObjectMapper(), new SecretKeySpec(new byte[32], "AES"), dir.resolve("wallet.dat"));
+        var single = repository.createWallet(SignatureScheme.Ed25519);
+        var created = repository.createWallets(SignatureScheme.Ed25519, 200);
+
+        Assertions.assertEquals(200, created.stream().map(Wallet::getAddress).distinct().count());
+        var wallets = repository.getWallets();
+        Assertions.assertEquals(201, wallets.size());
+        Assertions.assertTrue(wallets.containsKey(single.getAddress()));
+        for (var wallet : created) {
+            Assertions.assertEquals(wallet.publicKey(), wallets.get(wallet.getAddress()).publicKey());
+        }
+    }
+}